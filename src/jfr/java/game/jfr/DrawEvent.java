@@ -0,0 +1,46 @@
+package game.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One Camera.draw() pass: how long it took, and what was drawn and what was culled.
+ */
+@Name("sim.Draw")
+@Label("Draw")
+@Category("Sim")
+@Description("One frame drawn through the camera, with its drawn and culled counts.")
+@StackTrace(false)
+public class DrawEvent extends Event {
+    @Label("Scale")
+    double scale;
+
+    @Label("Objects Drawn")
+    int gobsDrawn;
+
+    @Label("Objects Culled")
+    int gobsCulled;
+
+    @Label("Walls Drawn")
+    int wallsDrawn;
+
+    @Label("Walls Culled")
+    int wallsCulled;
+
+    @Label("Static Pieces Drawn")
+    @Description("Level of detail runs and blocks, or cache chunks, drawn instead of the static objects and walls.")
+    int staticDrawn;
+
+    @Label("Actors Drawn")
+    int actorsDrawn;
+
+    @Label("Actors Culled")
+    int actorsCulled;
+
+    @Label("Player Drawn")
+    boolean playerDrawn;
+}
@@ -0,0 +1,75 @@
+package game.jfr;
+
+import game.Game;
+import game.actor.Movement;
+import game.camera.Camera;
+
+/**
+ * Emits the Java Flight Recorder events for ticks (TickEvent) and frames (DrawEvent).
+ *
+ * Loaded by name with -Dsim.jfr=true (see Game.PROFILER), so this class and jdk.jfr are loaded only
+ * then, and the game still builds and runs on a JVM without them. Built in the jfr source set, with a
+ * JDK that has jdk.jfr. The events are recorded by a running flight recording, e.g.
+ * started with -XX:StartFlightRecording=filename=sim.jfr, and can be read with 'jfr print --events sim.Tick sim.jfr'.
+ */
+public class Events implements Profiler {
+    private final Movement.Counts counts = new Movement.Counts();
+    private TickEvent tick; // Tick in progress, on the logic thread.
+    private DrawEvent draw; // Frame in progress, on the drawing thread.
+
+    @Override
+    public void beginTick() {
+        this.tick = new TickEvent();
+        this.tick.begin();
+    }
+
+    @Override
+    public void endTick() {
+        TickEvent e = this.tick;
+        this.tick = null;
+        e.end();
+
+        // The counts are taken whether or not the event is recorded, so the next tick starts from zero.
+        Movement.Counts counts = this.counts;
+        counts.clear();
+        Game.PLAYER.drainCounts(counts);
+        Game.ACTORS.drainCounts(counts);
+
+        if(e.shouldCommit()) {
+            e.tick = Game.TICKS;
+            e.catchUp = Game.CATCH_UP;
+            e.actors = Game.ACTORS.size();
+            e.wallTests = counts.tests;
+            e.wallHits = counts.hits;
+            e.climbs = counts.climbs;
+            e.slides = counts.slides;
+            e.commit();
+        }
+    }
+
+    @Override
+    public void beginDraw() {
+        this.draw = new DrawEvent();
+        this.draw.begin();
+    }
+
+    @Override
+    public void endDraw(Camera camera) {
+        DrawEvent e = this.draw;
+        this.draw = null;
+        e.end();
+
+        if(e.shouldCommit()) {
+            e.scale = camera.getScale();
+            e.gobsDrawn = camera.gobsDrawn;
+            e.gobsCulled = camera.gobsCulled;
+            e.wallsDrawn = camera.wallsDrawn;
+            e.wallsCulled = camera.wallsCulled;
+            e.staticDrawn = camera.staticDrawn;
+            e.actorsDrawn = camera.actorsDrawn;
+            e.actorsCulled = camera.actorsCulled;
+            e.playerDrawn = camera.playerDrawn;
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package game.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One Game.logic() tick: how long it took, and the collision work of the player's and store actors' moves.
+ */
+@Name("sim.Tick")
+@Label("Tick")
+@Category("Sim")
+@Description("One logic tick, with the collision work of its moves.")
+@StackTrace(false)
+public class TickEvent extends Event {
+    @Label("Tick")
+    long tick;
+
+    @Label("Catch-up Iteration")
+    @Description("Index of the tick among the ticks run in its frame. Above 0 when catching up.")
+    int catchUp;
+
+    @Label("Actors")
+    @Description("Store actors moved, besides the player.")
+    int actors;
+
+    @Label("Wall Tests")
+    @Description("Wall intersection tests made by the moves.")
+    long wallTests;
+
+    @Label("Wall Hits")
+    @Description("Move sweeps that hit a wall.")
+    long wallHits;
+
+    @Label("Slope Climbs")
+    long climbs;
+
+    @Label("Steep Slides")
+    long slides;
+}
@@ -0,0 +1,86 @@
+package game.bench;
+
+import game.Game;
+import game.util.MathHelper;
+import game.world.WallIndex;
+import java.awt.geom.Line2D;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wall tests against the generated level: the angle of a wall, a motion segment against every
+ * wall (the scan Actor.move() used to do), and the same segment through the wall index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    private List<Line2D> walls;
+    private WallIndex index;
+    private final WallIndex.Result hits = new WallIndex.Result();
+    private Line2D slope;
+
+    // A falling step through open air. It misses every wall, which is the common case and the worst case for a scan.
+    private double x1, y1, x2, y2;
+
+    @Setup
+    public void setup() {
+        Game.create(1000, 600);
+
+        this.walls = Game.WALLS;
+        this.index = Game.WALL_INDEX;
+        this.slope = this.walls.get(2);
+
+        this.x1 = Game.WORLD_WIDTH * .75;
+        this.y1 = 100;
+        this.x2 = this.x1 + 7;
+        this.y2 = this.y1 + 10;
+    }
+
+    @Benchmark
+    public double lineAngle() {
+        return MathHelper.lineAngle(this.slope);
+    }
+
+    @Benchmark
+    public int intersectsLineAllWalls() {
+        int hit = -1;
+
+        for(int a = 0; a < this.walls.size(); a++) {
+            if(this.walls.get(a).intersectsLine(this.x1, this.y1, this.x2, this.y2)) {
+                hit = a;
+                break;
+            }
+        }
+
+        return hit;
+    }
+
+    @Benchmark
+    public int intersectsLineIndexed() {
+        int hit = -1;
+
+        this.index.query(this.x1, this.y1, this.x2, this.y2, this.hits);
+        for(int a = 0; a < this.hits.count; a++) {
+            if(this.index.intersectsLine(this.hits.ids[a], this.x1, this.y1, this.x2, this.y2)) {
+                hit = this.hits.ids[a];
+                break;
+            }
+        }
+
+        return hit;
+    }
+}
@@ -0,0 +1,102 @@
+package game.bench;
+
+import game.actor.Movement;
+import game.util.MathHelper;
+import game.world.WallIndex;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One Actor.move() (the Movement rules it delegates to) in each of the movement cases.
+ *
+ * Every scenario has its own small level. The body is reset to the same starting state before
+ * each move, so every invocation takes the same path through the rules.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class MovementBenchmark {
+    /*
+    flat: walking right on level ground, resting on it.
+    slope: walking right up a walkable slope, climbing it.
+    steep: landing on a slope too steep to stand on, and sliding.
+    fall: falling with no walls below.
+
+    Bodies on a wall start with their center SKIN (.01) above it, where a stop leaves them. Run with
+    -Dsim.jfr=true and check the body's counts to see that each case does the collision work it says.
+    */
+    @Param({"flat", "slope", "steep", "fall"})
+    public String scenario;
+
+    private final Movement movement = Movement.DEFAULT;
+    private final Movement.Body body = new Movement.Body();
+    private WallIndex walls;
+    private double startX, startY, startXRotation, startYRotation;
+    private boolean right;
+
+    @Setup
+    public void setup() {
+        List<Line2D> lines = new ArrayList<Line2D>();
+        this.startXRotation = MathHelper.PiOver2;
+        this.startYRotation = Math.PI;
+
+        if(this.scenario.equals("flat")) {
+            lines.add(new Line2D.Double(0, 500, 2000, 500));
+            this.startX = 1000;
+            this.startY = 500 - 5 - .01;
+            this.startXRotation = 0; // Full speed right.
+            this.right = true;
+        } else if(this.scenario.equals("slope")) {
+            lines.add(new Line2D.Double(0, 1000, 2000, 1000 - Math.tan(MathHelper.degree * 20) * 2000));
+            this.startX = 1000;
+            this.startY = 1000 - Math.tan(MathHelper.degree * 20) * 1005 - 5 - .01;
+            this.startXRotation = 0;
+            this.right = true;
+        } else if(this.scenario.equals("steep")) {
+            lines.add(new Line2D.Double(0, 2000, 400, 0)); // About 79 degrees, steeper than the 65 degrees a steepAngle of 25 allows.
+            this.startX = 195;
+            this.startY = 1000 - 5 - 5; // Center 5 above the line, which is less than one fall.
+            this.startYRotation = MathHelper.ThreePiOver2; // Falling at full speed.
+        } else {
+            lines.add(new Line2D.Double(0, 5000, 2000, 5000));
+            this.startX = 1000;
+            this.startY = 100;
+            this.startYRotation = MathHelper.ThreePiOver2;
+        }
+
+        this.walls = new WallIndex(lines, WallIndex.DEFAULT_CELL_SIZE);
+        this.body.w = 10;
+        this.body.h = 10;
+    }
+
+    @Benchmark
+    public double move() {
+        Movement.Body b = this.body;
+        b.x = this.startX;
+        b.y = this.startY;
+        b.xRotation = this.startXRotation;
+        b.yRotation = this.startYRotation;
+        b.jumping = false;
+        b.right = this.right;
+
+        this.movement.move(b, this.walls);
+
+        return b.x + b.y;
+    }
+}
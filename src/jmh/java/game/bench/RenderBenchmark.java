@@ -0,0 +1,64 @@
+package game.bench;
+
+import game.Game;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Camera.draw() over the generated world into an offscreen image, with the same canvas type and
+ * rendering hints the window uses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RenderBenchmark {
+    private BufferedImage canvas;
+    private Graphics2D g;
+
+    @Setup
+    public void setup() {
+        Game.create(1000, 600);
+
+        // Let the camera settle on the player.
+        for(int a = 0; a < 120; a++) {
+            Game.logic();
+        }
+
+        this.canvas = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_ARGB);
+        this.g = this.canvas.createGraphics();
+        this.g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        this.g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        this.g.setBackground(Color.WHITE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.g.dispose();
+    }
+
+    @Benchmark
+    public int draw() {
+        this.g.clearRect(0, 0, this.canvas.getWidth(), this.canvas.getHeight());
+
+        Game.CAMERA.draw(this.g);
+
+        return Game.CAMERA.renderCount;
+    }
+}
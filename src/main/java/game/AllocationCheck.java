@@ -0,0 +1,133 @@
+package game;
+
+import game.actor.ActorStore;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the steady state tick and frame paths allocate nothing, so a running game makes no
+ * garbage for the collector to pause for.
+ *
+ * Usage: AllocationCheck [ticks N] [actors N]
+ *
+ * Creates the world headless and warms up, then runs N ticks of Game.logic() (default 10000), then N
+ * ticks each followed by a Camera.draw() into an offscreen image, counting the bytes allocated on this
+ * thread with com.sun.management.ThreadMXBean. Store actors walk and jump throughout, and so does the
+ * player while no frames are drawn, controlled by key events through Game.INPUT as the window would.
+ * Exits with status 1 if anything was allocated.
+ *
+ * Actor counts above -Dsim.parallelThreshold step on the pool, and ForkJoinPool.invoke() allocates a
+ * little per call on some JDKs, so the check is meant for the serial step.
+ */
+public class AllocationCheck {
+    // Warm up long enough for the code to be compiled and for rarely taken branches to have been linked, which allocates once.
+    private static final int WARMUP_TICKS = 20000;
+    private static final int WARMUP_FRAMES = 10000;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        int ticks = 10000;
+        int actors = 2000;
+        for(int a = 0; a < args.length; a++) {
+            if(args[a].equals("ticks")) {
+                ticks = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("actors")) {
+                actors = Integer.parseInt(args[++a]);
+            }
+        }
+
+        if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            Game.log("Thread allocation counting isn't supported by this JVM.");
+            System.exit(2);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        Game.create(1000, 600, actors);
+        BufferedImage canvas = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = canvas.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setBackground(Color.WHITE);
+
+        // Warm up until the code is compiled.
+        long tick = 0;
+        for(int a = 0; a < WARMUP_TICKS; a++) {
+            step(tick++, true);
+        }
+
+        long start = threads.getThreadAllocatedBytes(thread);
+        for(int a = 0; a < ticks; a++) {
+            step(tick++, true);
+        }
+        long logic = threads.getThreadAllocatedBytes(thread) - start;
+
+        // Warm up drawing until the code is compiled, and the static layer and sprites around the player are cached.
+        for(int a = 0; a < WARMUP_FRAMES; a++) {
+            frame(tick++, g, canvas);
+        }
+
+        start = threads.getThreadAllocatedBytes(thread);
+        for(int a = 0; a < ticks; a++) {
+            frame(tick++, g, canvas);
+        }
+        long draw = threads.getThreadAllocatedBytes(thread) - start;
+
+        g.dispose();
+
+        Game.log("actors: " + actors + ", ticks: " + ticks + ", logic: " + logic + " bytes, logic and draw: " + draw + " bytes.");
+
+        if(logic != 0 || draw != 0) {
+            Game.log("Allocations found in the tick or frame path.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * One tick with the player standing still, then a frame.
+     */
+    private static void frame(long tick, Graphics2D g, BufferedImage canvas) {
+        step(tick, false);
+        g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        Game.VIEW.draw(g);
+    }
+
+    /**
+     * One tick, with store actors, and the player if it moves, changing direction and jumping now and then.
+     * While frames are drawn the player stands still, so that the camera stays over the chunks already in the
+     * static layer cache. Rendering a new chunk allocates.
+     */
+    private static void step(long tick, boolean movePlayer) {
+        long now = System.nanoTime();
+        if(!movePlayer) {
+            Game.PLAYER.hold(false, false);
+        } else if(tick % 120 == 0) {
+            boolean left = (tick / 120) % 2 == 0;
+            Game.INPUT.offer(left ? KeyEvent.VK_D : KeyEvent.VK_A, false, now);
+            Game.INPUT.offer(left ? KeyEvent.VK_A : KeyEvent.VK_D, true, now);
+        }
+
+        if(movePlayer && tick % 90 == 0) {
+            Game.INPUT.offer(KeyEvent.VK_W, true, now);
+            Game.INPUT.offer(KeyEvent.VK_W, false, now);
+        }
+
+        ActorStore actors = Game.ACTORS;
+        if(actors.size() > 0) {
+            int i = (int)(tick % actors.size());
+            actors.setInput(i, (tick / actors.size()) % 2 == 0 ? ActorStore.LEFT : ActorStore.RIGHT);
+            if(tick % 7 == 0) {
+                actors.jump(i);
+            }
+        }
+
+        Game.INPUT.drain(Game.PLAYER, now);
+        Game.logic();
+    }
+}
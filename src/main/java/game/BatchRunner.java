@@ -0,0 +1,207 @@
+package game;
+
+import game.actor.Movement;
+import game.actor.Player;
+import game.util.MathHelper;
+import game.world.World;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many seeded worlds at once on a thread pool, for sweeps of the movement rules.
+ *
+ * Usage: BatchRunner [worlds N] [ticks T] [threads K] [seed S] [actors A] [xSpeed a,b,..] [ySpeed a,b,..] [steepAngle a,b,..]
+ *
+ * For every combination of the listed xSpeed, ySpeed and steepAngle (degrees) values, N worlds (default
+ * 1000) are generated from seeds S to S + N - 1, each with A store actors (default 0), and run for up to
+ * T ticks (default 3000) on K threads (default one per processor). The player walks right, jumping
+ * whenever it has been stuck for a while, until it reaches the goal at the right edge of the world.
+ * Each combination is summarized: how many worlds reached the goal and in how many ticks, the distance
+ * the player travelled, and how often it got stuck.
+ *
+ * Worlds share nothing, so results don't depend on the number of threads. Other sim options apply to
+ * every world, except -Dsim.level, which is refused: every world would load the same level whatever its seed.
+ */
+public class BatchRunner {
+    private static final int GOAL_MARGIN = 50; // Distance from the right edge that counts as reaching the goal.
+    private static final int STUCK_TICKS = 30; // The player is stuck if it hasn't gone STUCK_DISTANCE right in this many ticks.
+    private static final double STUCK_DISTANCE = 1;
+
+    /**
+     * Outcome of one world's run.
+     */
+    public static class Result {
+        public long seed;
+        public long ticks; // Ticks run.
+        public long ticksToGoal = -1; // -1 if the goal wasn't reached.
+        public double distance; // Path length travelled by the player.
+        public int stuck; // Times the player got stuck.
+    }
+
+    /**
+     * Run one world until the player reaches the goal or the ticks run out.
+     */
+    public static Result run(long seed, Movement movement, int actors, long ticks) {
+        World world = new World(seed, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, actors, movement);
+        Player player = world.player;
+        Result r = new Result();
+        r.seed = seed;
+
+        double goal = world.width - GOAL_MARGIN - player.w;
+        double checkX = player.x;
+        player.hold(false, true);
+
+        for(long t = 0; t < ticks; t++) {
+            if(t > 0 && t % STUCK_TICKS == 0) {
+                if(player.x - checkX < STUCK_DISTANCE) {
+                    r.stuck++;
+                    player.requestJump();
+                }
+                checkX = player.x;
+            }
+
+            double x = player.x;
+            double y = player.y;
+
+            player.latchInput();
+            world.logic(null, 0);
+            r.ticks++;
+
+            r.distance += Math.hypot(player.x - x, player.y - y);
+            if(player.x >= goal) {
+                r.ticksToGoal = r.ticks;
+                break;
+            }
+        }
+
+        return r;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        if(Game.LEVEL != null) {
+            Game.log("BatchRunner runs seeded worlds, so it doesn't take -Dsim.level.");
+            System.exit(2);
+        }
+
+        int worlds = 1000;
+        long ticks = 3000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 0;
+        int actors = 0;
+        double[] xSpeeds = { Movement.DEFAULT.xSpeed };
+        double[] ySpeeds = { Movement.DEFAULT.ySpeed };
+        double[] steepAngles = { Movement.DEFAULT.steepAngle / MathHelper.degree };
+        for(int a = 0; a < args.length; a++) {
+            if(args[a].equals("worlds")) {
+                worlds = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("ticks")) {
+                ticks = Long.parseLong(args[++a]);
+            } else if(args[a].equals("threads")) {
+                threads = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("seed")) {
+                seed = Long.parseLong(args[++a]);
+            } else if(args[a].equals("actors")) {
+                actors = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("xSpeed")) {
+                xSpeeds = parseList(args[++a]);
+            } else if(args[a].equals("ySpeed")) {
+                ySpeeds = parseList(args[++a]);
+            } else if(args[a].equals("steepAngle")) {
+                steepAngles = parseList(args[++a]);
+            }
+        }
+
+        Game.log("Running " + worlds + " worlds per combination of " + xSpeeds.length * ySpeeds.length * steepAngles.length + " on " + threads + " threads.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for(double xSpeed : xSpeeds) {
+                for(double ySpeed : ySpeeds) {
+                    for(double steepAngle : steepAngles) {
+                        Movement movement = new Movement(xSpeed, ySpeed, steepAngle * MathHelper.degree);
+
+                        long start = System.nanoTime();
+                        Result[] results = runAll(pool, movement, worlds, seed, actors, ticks);
+                        double seconds = (System.nanoTime() - start) / 1e9;
+
+                        Game.log(String.format("xSpeed %.2f, ySpeed %.2f, steepAngle %.1f: %s, %.0f world ticks/s", xSpeed, ySpeed, steepAngle, summarize(results), ticks(results) / seconds));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run worlds seeded from seed to seed + worlds - 1 on the pool, and wait for all of them.
+     */
+    public static Result[] runAll(ExecutorService pool, final Movement movement, int worlds, long seed, final int actors, final long ticks) throws Exception {
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(worlds);
+        for(int a = 0; a < worlds; a++) {
+            final long worldSeed = seed + a;
+            futures.add(pool.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return BatchRunner.run(worldSeed, movement, actors, ticks);
+                }
+            }));
+        }
+
+        Result[] results = new Result[worlds];
+        for(int a = 0; a < worlds; a++) {
+            results[a] = futures.get(a).get();
+        }
+
+        return results;
+    }
+
+    /**
+     * Goal rate, ticks to goal, distance and stuck counts over the results.
+     */
+    public static String summarize(Result[] results) {
+        long[] toGoal = new long[results.length];
+        int reached = 0;
+        double distance = 0;
+        long stuck = 0;
+        for(Result r : results) {
+            if(r.ticksToGoal >= 0) {
+                toGoal[reached++] = r.ticksToGoal;
+            }
+            distance += r.distance;
+            stuck += r.stuck;
+        }
+
+        Arrays.sort(toGoal, 0, reached);
+        int n = Math.max(1, results.length);
+
+        return String.format("goal %d/%d, ticks to goal p50 %d max %d, distance %.0f, stuck %.2f per world",
+            reached, results.length, reached > 0 ? toGoal[reached / 2] : -1, reached > 0 ? toGoal[reached - 1] : -1, distance / n, (double)stuck / n);
+    }
+
+    private static long ticks(Result[] results) {
+        long ticks = 0;
+        for(Result r : results) {
+            ticks += r.ticks;
+        }
+
+        return ticks;
+    }
+
+    private static double[] parseList(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for(int a = 0; a < parts.length; a++) {
+            values[a] = Double.parseDouble(parts[a].trim());
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,113 @@
+package game;
+
+import game.util.Histogram;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import org.apache.log4j.Logger;
+
+/**
+ * Frame phase timings, recorded by the game loop (and the paint callback) into latency histograms.
+ *
+ * The histograms collect one interval at a time. At the end of each interval they are summarized,
+ * the summaries are published for the diagnostics overlay, optionally written to the log and/or a
+ * CSV file, and the histograms are reset.
+ *
+ *   -Dsim.stats.csv=stats.csv  Append a row per phase per interval to the file.
+ *   -Dsim.stats.log=true       Log a line per phase per interval.
+ */
+public class FrameStats {
+    private static final Logger log = Logger.getLogger(FrameStats.class);
+
+    public enum Phase {
+        INPUT("input"), // Key event waiting in Game.INPUT until the tick that applies it.
+        LOGIC("logic"), // All logic catch-up iterations of one frame.
+        DRAW("draw"), // Window.draw().
+        PAINT("paint"), // Painting the canvas, on whichever thread paints.
+        PRESENT("present"), // Showing the active rendering buffer, including the vsync wait.
+        OVERSHOOT("sleep+"), // Time slept beyond what was asked for.
+        FRAME("frame"); // Whole loop iteration.
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Histogram[] histograms = new Histogram[Phase.values().length];
+    private volatile Histogram.Summary[] summaries = new Histogram.Summary[Phase.values().length];
+    private final Writer csv;
+    private final boolean logging;
+
+    public FrameStats() {
+        for(Phase p : Phase.values()) {
+            this.histograms[p.ordinal()] = new Histogram();
+            this.summaries[p.ordinal()] = Histogram.Summary.EMPTY;
+        }
+
+        this.logging = Boolean.getBoolean("sim.stats.log");
+
+        Writer w = null;
+        String path = System.getProperty("sim.stats.csv");
+        if(path != null) {
+            try {
+                w = new FileWriter(path, true);
+                w.write("time_ms,phase,count,p50_us,p99_us,p99.9_us,max_us\n");
+                w.flush();
+            } catch(IOException e) {
+                log.error("Can't open frame stats file " + path, e);
+                w = null;
+            }
+        }
+        this.csv = w;
+    }
+
+    public void record(Phase phase, long nanos) {
+        this.histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Summary of the phase for the last completed interval.
+     */
+    public Histogram.Summary summary(Phase phase) {
+        return this.summaries[phase.ordinal()];
+    }
+
+    /**
+     * End the current interval: publish and dump the summaries, then reset the histograms.
+     */
+    public void rollover() {
+        Histogram.Summary[] next = new Histogram.Summary[this.histograms.length];
+        for(Phase p : Phase.values()) {
+            Histogram h = this.histograms[p.ordinal()];
+            next[p.ordinal()] = h.summarize();
+            h.reset();
+        }
+        this.summaries = next;
+
+        if(this.logging) {
+            for(Phase p : Phase.values()) {
+                Histogram.Summary s = next[p.ordinal()];
+                log.info(p.label + ": n=" + s.count + " p50=" + micros(s.p50) + "us p99=" + micros(s.p99) + "us p99.9=" + micros(s.p999) + "us max=" + micros(s.max) + "us");
+            }
+        }
+
+        if(this.csv != null) {
+            try {
+                long now = System.currentTimeMillis();
+                for(Phase p : Phase.values()) {
+                    Histogram.Summary s = next[p.ordinal()];
+                    this.csv.write(now + "," + p.label + "," + s.count + "," + micros(s.p50) + "," + micros(s.p99) + "," + micros(s.p999) + "," + micros(s.max) + "\n");
+                }
+                this.csv.flush();
+            } catch(IOException e) {
+                log.error("Can't write frame stats", e);
+            }
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+}
@@ -2,34 +2,112 @@ package game;
 
 import game.actor.Actor;
 import org.apache.log4j.Logger;
-import java.util.Random;
 import java.awt.Graphics2D;
 import game.camera.Camera;
+import game.camera.StaticLayerCache;
 import game.actor.Player;
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.geom.Line2D;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import game.world.WallIndex;
+import game.world.World;
+import game.actor.ActorStore;
+import game.actor.Movement;
+import game.jfr.Profiler;
 
 public class Game {
     private static final Logger log = Logger.getLogger(Game.class);
     
-    private static final Random RAN = new Random(0);
     public static Window WINDOW;
     public static int WORLD_WIDTH;
     public static int WORLD_HEIGHT;
     public static Camera CAMERA;
+    public static Camera VIEW; // Camera of the frame being drawn. CAMERA itself, or a separate one following snapshots with a render thread.
     public static Player PLAYER;
     public static List<Actor> GOBS = new ArrayList<Actor>();
     public static List<Line2D> WALLS = new ArrayList<Line2D>();
+    public static WallIndex WALL_INDEX; // Spatial index over WALLS. Rebuild if WALLS changes.
     
-    public static final int TARGET_FPS = 60; // Target frames per second.
-    public static final double TICK = 1000 / TARGET_FPS; // Tick duration in milliseconds needed to hit the target frame rate.
+    /*
+    The world being played. The statics above and ACTORS are its parts, published for drawing.
+    With -Dsim.world=chunked the world has no edges. It is generated in chunks as the player
+    gets near them, and far away chunks are dropped. GOBS, WALLS and WALL_INDEX are replaced
+    whenever chunks load, and WORLD_VERSION goes up so caches of static content know to refresh.
+    */
+    public static World WORLD;
+    public static final boolean CHUNKED = "chunked".equals(System.getProperty("sim.world"));
+    public static volatile int WORLD_VERSION = 0;
+    public static final String LEVEL = System.getProperty("sim.level"); // Level file to load instead of generating the world.
+    
+    public static ActorStore ACTORS; // Moving actors other than the player.
+    
+    public static final boolean STATIC_CACHE = !"false".equals(System.getProperty("sim.staticCache")); // Draw the grid and walls from pre-rendered chunks.
+    public static final int ACTOR_COUNT = Integer.getInteger("sim.actors", 0); // Number of store actors to spawn.
+    public static final boolean AI = Boolean.getBoolean("sim.ai"); // Store actors chase the player instead of walking one way (see game.nav.Navigator).
+    
+    // Parallel actor stepping. Store actors are split across the pool in chunks of PARALLEL_THRESHOLD; 0 steps them serially.
+    public static final int PARALLEL_THRESHOLD = Integer.getInteger("sim.parallelThreshold", 4096);
+    public static final ForkJoinPool POOL = new ForkJoinPool(Integer.getInteger("sim.parallelism", Runtime.getRuntime().availableProcessors()));
+    
+    public static final int TARGET_FPS = Integer.getInteger("sim.fps", 60); // Initial target frames (logic ticks) per second.
+    public static volatile double TICK = 1000.0 / TARGET_FPS; // Tick duration in milliseconds needed to hit the target frame rate. See setTickRate().
+    public static final Scheduler SCHEDULER = Scheduler.forName(System.getProperty("sim.scheduler", "park")); // Waits out the rest of each frame.
+    
+    // Most logic ticks run in one frame to catch up. Time beyond that is dropped, so the game slows down instead of stalling. 0 for no limit.
+    public static final int MAX_CATCH_UP = Integer.getInteger("sim.maxCatchUp", 5);
+    public static volatile long DROPPED_TICKS = 0; // Ticks skipped because of MAX_CATCH_UP.
+    public static volatile double DROPPED_TIME = 0; // Time skipped because of MAX_CATCH_UP, in milliseconds.
+    public static int CATCH_UP = 0; // Index of the tick being run among the ticks of its frame. Above 0 when catching up.
     public static int FPS = 0; // FPS counter.
     public static int SIMFPS = 0; // Simulated FPS counter.
+    public static final FrameStats STATS = new FrameStats(); // Frame phase timings, summarized along with the FPS counters.
+    public static final InputQueue INPUT = new InputQueue(InputQueue.DEFAULT_CAPACITY); // Key events for the player, from the window.
     
-    public static boolean RUN = true;
+    public static long TICKS = 0; // Number of logic ticks run.
+    
+    /*
+    With -Dsim.renderThread=true, logic and drawing run on separate threads. The simulation publishes a
+    snapshot after every tick, and frames are drawn from the latest snapshot, interpolated between its
+    last two ticks, at up to RENDER_FPS regardless of the simulation rate. RENDER_FPS defaults to the
+    display's refresh rate, and 0 removes the cap. Passive frames are also paced by the event dispatch
+    thread, as each one waits for its paint.
+    */
+    public static final boolean RENDER_THREAD = Boolean.getBoolean("sim.renderThread");
+    public static final int RENDER_FPS = Integer.getInteger("sim.renderFps", -1); // -1 for the display's refresh rate.
+    public static SnapshotBuffer SNAPSHOTS;
+    
+    public static volatile boolean RUN = true;
+    
+    public static volatile double ZOOM = 1; // Camera scale, applied by the next tick. See Camera.setScale().
+    
+    public static InputRecorder RECORDER; // Records the player's controls with -Dsim.record=file, for InputReplay.
+    
+    /*
+    The state after each of the last REWIND_SECONDS of ticks is kept in REWIND (not while recording, since a
+    recording can't go back). Holding R rewinds a tick per tick. P pauses, and while paused , and . step one
+    tick back or forward. Ticks run after a rewind simulate again from the restored state. With AI the actors'
+    steering is rewound too, except in the chunked world, whose navigation graph changes with the chunks, so
+    that one can't rewind.
+    */
+    public static final int REWIND_SECONDS = Integer.getInteger("sim.rewindSeconds", 10); // 0 to disable.
+    private static final long MAX_REWIND_BYTES = 256L << 20; // The history is shortened to fit.
+    public static Rewind REWIND;
+    public static volatile boolean REWINDING = false; // Rewind key held.
+    public static volatile boolean PAUSED = false;
+    private static final AtomicInteger STEPS = new AtomicInteger(); // Single steps requested while paused. Negative for back.
+    
+    /*
+    With -Dsim.jfr=true, each logic tick and each frame drawn emit Java Flight Recorder events (see game.jfr.Events),
+    recorded when a flight recording is running, e.g. -XX:StartFlightRecording=filename=sim.jfr. Off by default,
+    in which case nothing is counted or emitted, and the jdk.jfr classes are never loaded. The events are loaded
+    by name, and stay off if they weren't built or the JVM has no jdk.jfr.
+    */
+    public static final Profiler PROFILER = Boolean.getBoolean("sim.jfr") ? loadProfiler() : null;
+    public static final boolean JFR = PROFILER != null;
     
     /**
      * Static initializer.
@@ -54,99 +132,110 @@ public class Game {
         int height = 600;
         WINDOW = new Window("sim", width, height);
         
-        // Set world size.
-        WORLD_WIDTH = WINDOW.w * 5;
-        WORLD_HEIGHT = WINDOW.h * 5;
-        
-        // Create background grid.
-        int num = 25;
-        for(int a = 0; a < num; a++) {
-            for(int b = 0; b < num; b++) {
-                int w = WORLD_WIDTH / num;
-                int h = WORLD_HEIGHT / num;
-                int x = a * w;
-                int y = b * h;
-                
-                GOBS.add(new Actor(x, y, w, h) {
-                    public void draw(Graphics2D g) {
-                        Point p = Game.CAMERA.getRenderPosition(this.x, this.y);
-                        
-                        g.setColor(new Color(1, 1, 1, 1f));
-                        g.fillRect(p.x, p.y, (int)this.w, (int)this.h);
-                        
-                        g.setColor(new Color(0, 0, 0, 0.07f));
-                        g.drawRect(p.x, p.y, (int)this.w, (int)this.h);
-                        
-                        if(PLAYER.getRect().intersects(this.getRect())) {
-                            //g.setColor(new Color(1, 0, 0, .01f));
-                            //g.fillRect(p.x, p.y, (int)this.w, (int)this.h);
-                        }
-                    }
-                });
-            }
+        // Create world.
+        Game.create(WINDOW.w, WINDOW.h);
+        
+        String record = System.getProperty("sim.record");
+        if(record != null) {
+            RECORDER = InputRecorder.open(record, WINDOW.w, WINDOW.h, ACTORS.size());
+        } else if(REWIND_SECONDS > 0 && CHUNKED && WORLD.navigator != null) {
+            log("No rewinding the chunked world with AI: its navigation graph changes with the chunks.");
+        } else if(REWIND_SECONDS > 0) {
+            long length = Math.min((long)REWIND_SECONDS * TARGET_FPS, MAX_REWIND_BYTES / Rewind.stateSize(ACTORS.size(), WORLD.navigator != null));
+            REWIND = new Rewind((int)Math.max(2, length), ACTORS.size());
+            REWIND.capture();
         }
         
-        // Create left, right walls.
-        WALLS.add(new Line2D.Double(0, 0, 0, WORLD_HEIGHT));
-        WALLS.add(new Line2D.Double(WORLD_WIDTH, 0, WORLD_WIDTH, WORLD_HEIGHT));
-        
-        // Create random ground line.
-        int prevX = 0;
-        int prevY = WORLD_HEIGHT / 2;
-        for(int a = 0; a < WORLD_WIDTH; a++) {
-            int x1 = Game.ran(200) + 10 + prevX;
-            int y1 = Game.ran(30);
-            double s = Game.ran();
-            if(s <= .5) { y1 = -y1; } // Negative
-            y1 += prevY;
-            
-            WALLS.add(new Line2D.Double(prevX, prevY, x1, y1));
-            
-            prevX = x1;
-            prevY = y1;
-            
-            if(prevX >= WORLD_WIDTH) {
-                break;
-            }
+        // Start game loop.
+        loop();
+    }
+    
+    /**
+     * Create the world, player and camera for a view of the given size. Doesn't need a display.
+     */
+    public static void create(int width, int height) {
+        Game.create(width, height, ACTOR_COUNT);
+    }
+    
+    /**
+     * Create the world with the given number of store actors.
+     */
+    public static void create(int width, int height, int actorCount) {
+        // A new world from the same seed, so every call generates the same world.
+        Game.create(new World(0, width, height, actorCount, Movement.DEFAULT));
+    }
+    
+    /**
+     * Play the given world, e.g. one built for a scenario (see Scenarios), with a view the size of its camera's.
+     */
+    public static void create(World world) {
+        WORLD = world;
+        Game.publishWorld();
+        ACTORS = WORLD.actors;
+        PLAYER = WORLD.player;
+        CAMERA = WORLD.camera;
+        int playersize = (int)PLAYER.w;
+        int width = CAMERA.getViewWidth();
+        int height = CAMERA.getViewHeight();
+        
+        // Create the camera frames are drawn through. With a render thread it follows snapshots of a stand-in player.
+        TICKS = 0;
+        if(RENDER_THREAD) {
+            VIEW = new Camera(0, 0, width, height);
+            VIEW.setTarget(new Player(0, 0, playersize, playersize));
+            SNAPSHOTS = new SnapshotBuffer(ACTORS.size());
+        } else {
+            VIEW = CAMERA;
         }
         
-        // Create random lines.
-        prevX = 0;
-        prevY = (WORLD_HEIGHT / 2) - 20;
-        for(int a = 0; a < WORLD_WIDTH; a++) {
-            int x1 = Game.ran(300) + 10 + prevX;
-            int y1 = Game.ran(30);
-            double s = Game.ran();
-            if(s <= .5) { y1 = -y1; } // Negative
-            y1 += prevY;
-            
-            if(Game.ran() >= .2) {
-                WALLS.add(new Line2D.Double(prevX, prevY, x1, y1));
+        if(STATIC_CACHE) {
+            VIEW.setStaticLayer(new StaticLayerCache(StaticLayerCache.DEFAULT_CHUNK_SIZE, Integer.getInteger("sim.staticCache.chunks", StaticLayerCache.DEFAULT_MAX_CHUNKS)));
+        }
+    }
+    
+    /**
+     * Publish the world's size and content. Its lists are replaced rather than modified when chunks
+     * load, so a render thread still drawing the old ones isn't disturbed.
+     */
+    private static void publishWorld() {
+        WORLD_WIDTH = WORLD.width;
+        WORLD_HEIGHT = WORLD.height;
+        GOBS = WORLD.gobs;
+        WALLS = WORLD.walls;
+        WALL_INDEX = WORLD.wallIndex;
+        WORLD_VERSION++;
+    }
+    
+    public static final Color TILE_FILL = new Color(1, 1, 1, 1f);
+    public static final Color TILE_LINE = new Color(0, 0, 0, 0.07f);
+    
+    /**
+     * A background grid tile.
+     */
+    public static Actor createTile(int x, int y, int w, int h) {
+        return new Actor(x, y, w, h) {
+            public boolean isStatic() {
+                return true;
             }
             
-            prevX = x1;
-            prevY = y1;
-            
-            if(prevX >= WORLD_WIDTH) {
-                break;
+            public void draw(Graphics2D g) {
+                int x = Game.VIEW.renderX(this.x);
+                int y = Game.VIEW.renderY(this.y);
+                int w = Game.VIEW.renderX(this.x + this.w) - x;
+                int h = Game.VIEW.renderY(this.y + this.h) - y;
+                
+                g.setColor(TILE_FILL);
+                g.fillRect(x, y, w, h);
+                
+                g.setColor(TILE_LINE);
+                g.drawRect(x, y, w, h);
+                
+                if(VIEW.getTarget().getRect().intersects(this.getRect())) {
+                    //g.setColor(new Color(1, 0, 0, .01f));
+                    //g.fillRect(p.x, p.y, (int)this.w, (int)this.h);
+                }
             }
-        }
-        
-        // Steep angle slide demonstration.
-        WALLS.add(new Line2D.Double(200, (WORLD_HEIGHT / 2) - 40, 650, (WORLD_HEIGHT / 2) - 500));
-        WALLS.add(new Line2D.Double(650, (WORLD_HEIGHT / 2) - 500, 750, (WORLD_HEIGHT / 2) - 500));
-        WALLS.add(new Line2D.Double(750, (WORLD_HEIGHT / 2) - 500, 950, (WORLD_HEIGHT / 2) - 40));
-        
-        // Create player.
-        int playersize = 10;
-        PLAYER = new Player(0, (WORLD_HEIGHT / 2) - 100, playersize, playersize);
-        
-        // Create camera.
-        CAMERA = new Camera(0, 0, WINDOW.w, WINDOW.h);        
-        CAMERA.setTarget(PLAYER);
-        
-        // Start game loop.
-        loop();
+        };
     }
     
     /*
@@ -156,62 +245,152 @@ public class Game {
     the target framerate.
     */
     public static void loop() {
-        double tick = Game.TICK;
-        double accumulator = 0; // Time counter.
+        long accumulator = 0; // Time not yet simulated, in nanoseconds.
         
         long fpsStart = 0;
         int frames = 0;
         int simframes = 0;
         
+        if(RENDER_THREAD) {
+            Thread render = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Game.renderLoop();
+                }
+            }, "render");
+            render.setDaemon(true);
+            render.start();
+        }
+        
+        long start = System.nanoTime();
         while(Game.RUN) {
-            long start = System.currentTimeMillis();
-            //Game.log("accum start: " + accumulator);
+            long tick = (long)(Game.TICK * 1e6); // Read once, so a rate change applies from the next frame.
             
+            int ticks = 0;
             while(accumulator >= tick) {
+                if(MAX_CATCH_UP > 0 && ticks == MAX_CATCH_UP) {
+                    // Too far behind, e.g. after a long GC pause. Drop the whole ticks that are left rather than
+                    // run them all, which would make this frame longer still and put us further behind.
+                    long dropped = accumulator / tick;
+                    accumulator -= dropped * tick;
+                    DROPPED_TICKS += dropped;
+                    DROPPED_TIME += dropped * tick / 1e6;
+                    break;
+                }
+                
                 accumulator -= tick;
                 
-                // Perform game logic.
+                // Apply the key events that came in since the last tick, then perform game logic.
+                INPUT.drain(PLAYER, System.nanoTime());
+                CATCH_UP = ticks;
                 Game.logic();
                 
+                if(RENDER_THREAD) {
+                    SNAPSHOTS.publish(TICKS, accumulator / 1e6);
+                }
+                
                 simframes++; // This will count the simulated frame rate, which should try to match the target frame rate.
+                ticks++;
             }
             
-            // Perform drawing.
-            Game.WINDOW.draw();
+            long phase = System.nanoTime();
+            if(ticks > 0) {
+                STATS.record(FrameStats.Phase.LOGIC, phase - start);
+            }
+            
+            // Perform drawing, unless the render thread does it.
+            if(!RENDER_THREAD) {
+                Game.WINDOW.draw();
+                
+                STATS.record(FrameStats.Phase.DRAW, System.nanoTime() - phase);
+                frames++; // This will count the real frame rate, which can vary.
+            }
             
             // Count frame rate.
-            frames++; // This will count the real frame rate, which can vary.
             if(System.currentTimeMillis() > fpsStart + 1000) {
                 //Game.log("real fps: " + FPS + ", sim fps: " + SIMFPS);
                 fpsStart = System.currentTimeMillis();
-                FPS = frames;
+                if(!RENDER_THREAD) {
+                    FPS = frames;
+                }
                 SIMFPS = simframes;
                 frames = 0;
                 simframes = 0;
+                STATS.rollover();
             }
             
-            long tickDuration = System.currentTimeMillis() - start;
-            long leftover = (long)(tick - tickDuration);
-            //Game.log("tick duration: " + tickDuration);
-            //Game.log("sleeping: " + leftover);
-            
-            // Sleep for the remainder of this tick.
-            if(leftover > 0) {
-                try { Thread.sleep(leftover); } catch(InterruptedException e) {}
+            // Wait until the next tick is due, which is when the accumulator will reach a whole tick.
+            long deadline = start + tick - accumulator;
+            if(deadline - System.nanoTime() > 0) {
+                SCHEDULER.waitUntil(deadline);
+                STATS.record(FrameStats.Phase.OVERSHOOT, Math.max(0, System.nanoTime() - deadline));
             }
             
-            //Game.log("adding time: " + (System.currentTimeMillis() - start));
-            //Game.log("---------------------");
-            accumulator += System.currentTimeMillis() - start;
+            // The frame ends where the next one starts, so no time goes unaccounted.
+            long end = System.nanoTime();
+            STATS.record(FrameStats.Phase.FRAME, end - start);
+            accumulator += end - start;
+            start = end;
         }
     }
     
-    public static double ran() {
-        return RAN.nextDouble();
+    /**
+     * Set the target number of logic ticks per second. Takes effect from the next frame.
+     */
+    public static void setTickRate(double ticksPerSecond) {
+        TICK = 1000.0 / Math.max(1, Math.min(1000, ticksPerSecond));
+    }
+    
+    public static double getTickRate() {
+        return 1000.0 / TICK;
     }
     
-    public static int ran(int max) {
-        return RAN.nextInt(max);
+    /**
+     * Set the camera scale, e.g. 0.5 to see twice as much of the world. Takes effect from the next tick.
+     */
+    public static void setZoom(double scale) {
+        ZOOM = Math.max(Camera.MIN_SCALE, Math.min(Camera.MAX_SCALE, scale));
+    }
+    
+    /**
+     * Draw frames from the latest snapshot at up to RENDER_FPS, each one on screen before the next.
+     */
+    private static void renderLoop() {
+        long fpsStart = 0;
+        int frames = 0;
+        int fps = RENDER_FPS < 0 ? Game.WINDOW.getRefreshRate() : RENDER_FPS;
+        long frameTime = fps > 0 ? 1000000000L / fps : 0;
+        
+        while(Game.RUN) {
+            long start = System.nanoTime();
+            
+            boolean drawn = Game.WINDOW.drawAndWait();
+            
+            STATS.record(FrameStats.Phase.DRAW, System.nanoTime() - start);
+            
+            // Count frame rate.
+            if(drawn) {
+                frames++;
+            }
+            if(System.currentTimeMillis() > fpsStart + 1000) {
+                fpsStart = System.currentTimeMillis();
+                FPS = frames;
+                frames = 0;
+            }
+            
+            // Cap the frame rate.
+            long leftover = frameTime - (System.nanoTime() - start);
+            if(leftover > 0) {
+                LockSupport.parkNanos(leftover);
+            }
+        }
+    }
+    
+    /**
+     * Ask for a single step while paused, back if negative.
+     */
+    public static void step(int direction) {
+        STEPS.addAndGet(direction < 0 ? -1 : 1);
     }
     
     public static void log(String msg) {
@@ -221,17 +400,83 @@ public class Game {
     /**
      * Process game logic.
      */
-    private static void logic() {
-        // Process game objects.
-        PLAYER.logic();
+    public static void logic() {
+        if(JFR) {
+            PROFILER.beginTick();
+            Game.tick();
+            PROFILER.endTick();
+            return;
+        }
+        
+        Game.tick();
+    }
+    
+    /**
+     * Load the flight recorder events, built apart from the game (see game.jfr.Profiler).
+     *
+     * @return The events, or null if they aren't available.
+     */
+    private static Profiler loadProfiler() {
+        try {
+            return (Profiler)Class.forName("game.jfr.Events").newInstance();
+        } catch(ReflectiveOperationException | LinkageError e) {
+            log("Not profiling: flight recorder events need Java 11 or 8u262, built with -PjfrJavaHome (" + e + ").");
+            return null;
+        }
+    }
+    
+    private static void tick() {
+        // Rewind, or hold still while paused apart from single steps.
+        if(REWIND != null && REWINDING) {
+            REWIND.back();
+            return;
+        }
+        
+        if(PAUSED) {
+            int steps = STEPS.get();
+            if(steps == 0) {
+                return;
+            }
+            
+            STEPS.addAndGet(steps < 0 ? 1 : -1);
+            if(steps < 0) {
+                if(REWIND != null) { REWIND.back(); }
+                return;
+            }
+        }
         
-        // Update camera.
-        CAMERA.logic();
+        // Latch the player's controls for this tick.
+        byte input = PLAYER.latchInput();
+        if(RECORDER != null) { RECORDER.input(TICKS, input); }
+        
+        // Load chunks, move the player and store actors, and update the camera.
+        if(CAMERA.getScale() != ZOOM) {
+            CAMERA.setScale(ZOOM);
+        }
+        
+        int version = WORLD.version;
+        WORLD.logic(POOL, PARALLEL_THRESHOLD);
+        if(WORLD.version != version) {
+            Game.publishWorld();
+        }
+        
+        if(RECORDER != null) { RECORDER.afterTick(TICKS); }
+        TICKS++;
+        
+        if(REWIND != null) { REWIND.capture(); }
     }
     
     protected static void draw(Graphics2D g) {
-        if(Game.CAMERA == null) { return; }
+        if(Game.VIEW == null) { return; }
         
-        Game.CAMERA.draw(g);
+        if(RENDER_THREAD) {
+            // Draw the latest published tick, interpolated from the tick before it.
+            Snapshot s = SNAPSHOTS.acquire();
+            if(s == null) { return; }
+            
+            Game.VIEW.draw(g, s, s.alpha(System.nanoTime(), TICK));
+        } else {
+            Game.VIEW.draw(g);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package game;
+
+import game.actor.Player;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Runs the simulation without a display. There is no window, panel or camera drawing,
+ * and no sleeping: Game.logic() is stepped as fast as the CPU allows.
+ *
+ * Usage: Headless [ticks] [input script]
+ *
+ * The input script is read from the file system, or from the classpath if no such file exists.
+ * See ScriptedInput for the format. The run ends by logging the player's position and a checksum of
+ * every actor's position, which are the same for every run of the same ticks and script.
+ */
+public class Headless {
+    public static final int VIEW_WIDTH = 1000;
+    public static final int VIEW_HEIGHT = 600;
+
+    /**
+     * Supplies the player's controls before each tick.
+     */
+    public interface Input {
+        void apply(long tick, Player player);
+    }
+
+    /**
+     * Checked before each tick. Return true to stop the run.
+     */
+    public interface StopCondition {
+        boolean stop(long tick);
+    }
+
+    public static final Input NO_INPUT = new Input() {
+        @Override
+        public void apply(long tick, Player player) {
+
+        }
+    };
+
+    public static final StopCondition NEVER = new StopCondition() {
+        @Override
+        public boolean stop(long tick) {
+            return false;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+        Input input = args.length > 1 ? ScriptedInput.parse(open(args[1])) : NO_INPUT;
+
+        Game.create(VIEW_WIDTH, VIEW_HEIGHT);
+
+        long start = System.nanoTime();
+        long ran = Headless.run(input, ticks, NEVER);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Game.log("ticks: " + ran + ", seconds: " + seconds + ", ticks/s: " + (long)(ran / seconds));
+        Game.log("position: " + Game.PLAYER.x + ", " + Game.PLAYER.y);
+        Game.log("checksum: " + Long.toHexString(InputRecorder.checksum()));
+        if(Game.WORLD.navigator != null) {
+            Game.log("navigation: " + Game.WORLD.navigator.report());
+        }
+    }
+
+    /**
+     * Step the current world until the tick count is reached, the stop condition holds, or Game.RUN is cleared.
+     * Game.create() must have been called first.
+     *
+     * @return The number of ticks run.
+     */
+    public static long run(Input input, long ticks, StopCondition stop) {
+        long tick = 0;
+
+        while(Game.RUN && tick < ticks && !stop.stop(tick)) {
+            input.apply(tick, Game.PLAYER);
+
+            Game.logic();
+
+            tick++;
+        }
+
+        return tick;
+    }
+
+    private static InputStream open(String path) throws Exception {
+        if(new File(path).isFile()) {
+            return new FileInputStream(path);
+        }
+
+        InputStream in = Headless.class.getClassLoader().getResourceAsStream(path);
+        if(in == null) {
+            throw new IllegalArgumentException("Input script not found: " + path);
+        }
+
+        return in;
+    }
+}
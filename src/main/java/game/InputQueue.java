@@ -0,0 +1,104 @@
+package game;
+
+import game.actor.Player;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free bounded queue of timestamped key events, from the AWT event thread to the game loop.
+ *
+ * The event thread offers presses and releases as they arrive. The loop drains them once per tick, just
+ * before Game.logic(), and applies them to the player on its own thread, so the controls only change
+ * between ticks and in the order the keys were pressed. A drain stops at the release of a key pressed
+ * earlier in the same drain, leaving it for the next tick, so a tap shorter than a tick still lasts one.
+ *
+ * The slots are allocated up front. The writer fills a slot and then publishes the tail, the reader
+ * empties slots and then publishes the head, so neither side locks, waits or allocates. When the queue
+ * is full, offered events are refused.
+ *
+ * There must be one writer thread and one reader thread.
+ */
+public class InputQueue {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int mask;
+    private final int[] keyCodes;
+    private final boolean[] pressed;
+    private final long[] times; // System.nanoTime() when offered.
+    private final AtomicLong head = new AtomicLong(); // Next event to drain. Written by the reader.
+    private final AtomicLong tail = new AtomicLong(); // Next slot to fill. Written by the writer.
+
+    /**
+     * Create a queue of the given capacity, rounded up to a power of two.
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.keyCodes = new int[size];
+        this.pressed = new boolean[size];
+        this.times = new long[size];
+    }
+
+    /**
+     * Writer: add a key press or release.
+     *
+     * @return False if the queue is full, in which case the event is dropped.
+     */
+    public boolean offer(int keyCode, boolean pressed, long nanos) {
+        long t = this.tail.get();
+        if(t - this.head.get() > this.mask) {
+            return false;
+        }
+
+        int i = (int)t & this.mask;
+        this.keyCodes[i] = keyCode;
+        this.pressed[i] = pressed;
+        this.times[i] = nanos;
+        this.tail.lazySet(t + 1);
+
+        return true;
+    }
+
+    /**
+     * Reader: apply the waiting events to the player, and record how long each one waited in the INPUT phase of Game.STATS.
+     *
+     * @return The number of events applied.
+     */
+    public int drain(Player player, long now) {
+        long h = this.head.get();
+        long t = this.tail.get();
+
+        long e = h;
+        for(; e < t; e++) {
+            int i = (int)e & this.mask;
+            int keyCode = this.keyCodes[i];
+
+            if(!this.pressed[i]) {
+                if(this.pressedSince(h, e, keyCode)) {
+                    break;
+                }
+                player.keyReleased(keyCode);
+            } else {
+                player.keyPressed(keyCode);
+            }
+
+            Game.STATS.record(FrameStats.Phase.INPUT, now - this.times[i]);
+        }
+        this.head.lazySet(e);
+
+        return (int)(e - h);
+    }
+
+    /**
+     * Whether the key was pressed by one of the events [from, to).
+     */
+    private boolean pressedSince(long from, long to, int keyCode) {
+        for(long e = from; e < to; e++) {
+            int i = (int)e & this.mask;
+            if(this.pressed[i] && this.keyCodes[i] == keyCode) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
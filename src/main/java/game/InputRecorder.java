@@ -0,0 +1,154 @@
+package game;
+
+import game.actor.ActorStore;
+import game.util.Varint;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the player's per-tick controls to a compact binary log, for replay with InputReplay.
+ *
+ * The world is generated from a fixed seed, so the controls are all that's needed to reproduce
+ * a session, given the same world options, which the header records. Only changes are written: a record is the tick gap since the previous record as a
+ * varint, then a tag byte. Holding a direction for a minute costs two bytes.
+ *
+ * Format:
+ *   header: int magic "SIMR", byte version, varint view width, view height, store actors, checksum interval,
+ *           byte world options (CHUNKED | AI), UTF level file ("" for a generated world)
+ *   input record: varint gap, byte controls (ActorStore LEFT | RIGHT | JUMP)
+ *   checksum record: varint gap, byte 0x80, long checksum of the positions after the tick
+ *   end record: varint gap, byte 0xFF, varint total ticks
+ */
+public class InputRecorder {
+    public static final int MAGIC = 0x53494D52;
+    public static final int VERSION = 2;
+    public static final int CHECKSUM = 0x80;
+    public static final int END = 0xFF;
+    public static final int DEFAULT_CHECK_INTERVAL = 60;
+
+    // World options in the header.
+    public static final int CHUNKED = 1; // -Dsim.world=chunked
+    public static final int AI = 2; // -Dsim.ai=true
+
+    private final DataOutputStream out;
+    private final int checkInterval;
+    private long lastTick = 0;
+    private byte lastInput = 0;
+    private long ticks = 0;
+    private boolean closed = false;
+
+    public InputRecorder(OutputStream out, int width, int height, int actors, int checkInterval) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.checkInterval = checkInterval;
+
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        Varint.write(this.out, width);
+        Varint.write(this.out, height);
+        Varint.write(this.out, actors);
+        Varint.write(this.out, checkInterval);
+        this.out.writeByte(options());
+        this.out.writeUTF(Game.LEVEL == null ? "" : Game.LEVEL);
+    }
+
+    /**
+     * The world options of this run, as written in the header.
+     */
+    public static int options() {
+        return (Game.CHUNKED ? CHUNKED : 0) | (Game.AI ? AI : 0);
+    }
+
+    /**
+     * Open a recording file, closed automatically at shutdown.
+     */
+    public static InputRecorder open(String path, int width, int height, int actors) throws IOException {
+        final InputRecorder recorder = new InputRecorder(new FileOutputStream(path), width, height, actors, DEFAULT_CHECK_INTERVAL);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.close();
+            }
+        }));
+
+        return recorder;
+    }
+
+    /**
+     * Record the controls latched for the tick. Called before the tick's logic.
+     */
+    public synchronized void input(long tick, byte input) {
+        if(this.closed) { return; }
+
+        // Jump is an edge, so a tick with a jump is always written.
+        if(input != this.lastInput || (input & ActorStore.JUMP) != 0) {
+            try {
+                Varint.write(this.out, tick - this.lastTick);
+                this.out.writeByte(input);
+            } catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            this.lastTick = tick;
+            this.lastInput = input;
+        }
+    }
+
+    /**
+     * Record a checksum every checkInterval ticks. Called after the tick's logic.
+     */
+    public synchronized void afterTick(long tick) {
+        if(this.closed) { return; }
+
+        this.ticks = tick + 1;
+
+        if(this.ticks % this.checkInterval == 0) {
+            try {
+                Varint.write(this.out, tick - this.lastTick);
+                this.out.writeByte(CHECKSUM);
+                this.out.writeLong(checksum());
+            } catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            this.lastTick = tick;
+        }
+    }
+
+    /**
+     * Write the end record and close. Later calls do nothing.
+     */
+    public synchronized void close() {
+        if(this.closed) { return; }
+        this.closed = true;
+
+        try {
+            Varint.write(this.out, Math.max(0, this.ticks - 1 - this.lastTick));
+            this.out.writeByte(END);
+            Varint.write(this.out, this.ticks);
+            this.out.close();
+        } catch(IOException e) {
+            Game.log("Can't finish input recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hash of the player and store actor positions.
+     */
+    public static long checksum() {
+        long h = 17;
+        h = h * 31 + Double.doubleToLongBits(Game.PLAYER.x);
+        h = h * 31 + Double.doubleToLongBits(Game.PLAYER.y);
+
+        ActorStore actors = Game.ACTORS;
+        for(int a = 0; a < actors.size(); a++) {
+            h = h * 31 + Double.doubleToLongBits(actors.getX(a));
+            h = h * 31 + Double.doubleToLongBits(actors.getY(a));
+        }
+
+        return h;
+    }
+}
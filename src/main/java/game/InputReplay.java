@@ -0,0 +1,206 @@
+package game;
+
+import game.actor.ActorStore;
+import game.actor.Player;
+import game.util.Varint;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Replays an InputRecorder log headless, at full speed, checking the recorded position checksums.
+ * A recording only replays with the world options it was made with (-Dsim.world, -Dsim.level and
+ * -Dsim.ai), and is refused with others.
+ *
+ * Usage: InputReplay <recording> [render every N ticks] [frame directory]
+ *
+ * With N, every Nth tick is drawn through the camera into an offscreen image, and written to the
+ * frame directory as a PNG if one is given. Exits with status 1 on the first checksum mismatch.
+ */
+public class InputReplay implements Headless.Input, Headless.StopCondition {
+    public final int width, height, actors, checkInterval;
+
+    private final DataInputStream in;
+
+    // The next record.
+    private long nextTick = 0;
+    private int nextTag = -1;
+    private long nextChecksum;
+    private long endTicks = -1;
+
+    private long mismatchTick = -1;
+    private long checks = 0;
+
+    public InputReplay(InputStream stream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(stream));
+
+        if(this.in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException("Not an input recording.");
+        }
+
+        int version = this.in.readUnsignedByte();
+        if(version != InputRecorder.VERSION) {
+            throw new IOException("Unsupported input recording version " + version + ".");
+        }
+
+        this.width = (int)Varint.read(this.in);
+        this.height = (int)Varint.read(this.in);
+        this.actors = (int)Varint.read(this.in);
+        this.checkInterval = (int)Varint.read(this.in);
+
+        // The same world options, or the replay diverges.
+        int options = this.in.readUnsignedByte();
+        String level = this.in.readUTF();
+        if(options != InputRecorder.options() || !level.equals(Game.LEVEL == null ? "" : Game.LEVEL)) {
+            throw new IOException("Recorded with " + describe(options, level) + ", replaying with " + describe(InputRecorder.options(), Game.LEVEL) + ".");
+        }
+
+        this.advance();
+    }
+
+    private static String describe(int options, String level) {
+        return "-Dsim.world=" + ((options & InputRecorder.CHUNKED) != 0 ? "chunked" : "default")
+            + " -Dsim.level=" + (level == null || level.isEmpty() ? "none" : level)
+            + " -Dsim.ai=" + ((options & InputRecorder.AI) != 0);
+    }
+
+    private void advance() throws IOException {
+        try {
+            this.nextTick += Varint.read(this.in);
+            this.nextTag = this.in.readUnsignedByte();
+
+            if(this.nextTag == InputRecorder.CHECKSUM) {
+                this.nextChecksum = this.in.readLong();
+            } else if(this.nextTag == InputRecorder.END) {
+                this.endTicks = Varint.read(this.in);
+            }
+        } catch(EOFException e) {
+            // Recording cut short, e.g. by a crash. Replay what there is.
+            this.nextTag = InputRecorder.END;
+            this.endTicks = this.nextTick;
+        }
+    }
+
+    @Override
+    public void apply(long tick, Player player) {
+        try {
+            while(this.nextTag >= 0 && this.nextTag < InputRecorder.CHECKSUM && this.nextTick == tick) {
+                player.hold((this.nextTag & ActorStore.LEFT) != 0, (this.nextTag & ActorStore.RIGHT) != 0);
+                if((this.nextTag & ActorStore.JUMP) != 0) {
+                    player.requestJump();
+                }
+
+                this.advance();
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks the checksums recorded for the previous tick. Stops at the end of the recording or on a mismatch.
+     */
+    @Override
+    public boolean stop(long tick) {
+        try {
+            while(this.nextTag == InputRecorder.CHECKSUM && this.nextTick == tick - 1) {
+                this.checks++;
+                if(InputRecorder.checksum() != this.nextChecksum) {
+                    this.mismatchTick = tick - 1;
+                    return true;
+                }
+
+                this.advance();
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return this.nextTag == InputRecorder.END && tick >= this.endTicks;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        if(args.length < 1) {
+            Game.log("Usage: InputReplay <recording> [render every N ticks] [frame directory]");
+            System.exit(2);
+        }
+
+        InputReplay replay = new InputReplay(new FileInputStream(args[0]));
+        final int every = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        final File frames = args.length > 2 ? new File(args[2]) : null;
+
+        Game.create(replay.width, replay.height, replay.actors);
+
+        long start = System.nanoTime();
+        long ticks = 0;
+        if(every <= 0) {
+            ticks = Headless.run(replay, Long.MAX_VALUE, replay);
+        } else {
+            // Run in slices of N ticks, drawing a frame after each.
+            BufferedImage canvas = new BufferedImage(replay.width, replay.height, BufferedImage.TYPE_INT_ARGB);
+            if(frames != null) { frames.mkdirs(); }
+
+            while(true) {
+                long ran = Headless.run(new Offset(replay, ticks), every, new Offset(replay, ticks));
+                ticks += ran;
+
+                Graphics2D g = canvas.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g.setBackground(Color.WHITE);
+                g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                Game.VIEW.draw(g);
+                g.dispose();
+
+                if(frames != null) {
+                    ImageIO.write(canvas, "png", new File(frames, String.format("tick-%08d.png", ticks)));
+                }
+
+                if(ran < every) {
+                    break;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Game.log("ticks: " + ticks + ", checksums: " + replay.checks + ", seconds: " + seconds + ", ticks/s: " + (long)(ticks / seconds));
+
+        if(replay.mismatchTick >= 0) {
+            Game.log("Checksum mismatch after tick " + replay.mismatchTick + ".");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Shifts the tick numbers of a slice of the run back to ticks of the whole run.
+     */
+    private static class Offset implements Headless.Input, Headless.StopCondition {
+        private final InputReplay replay;
+        private final long offset;
+
+        private Offset(InputReplay replay, long offset) {
+            this.replay = replay;
+            this.offset = offset;
+        }
+
+        @Override
+        public void apply(long tick, Player player) {
+            this.replay.apply(tick + this.offset, player);
+        }
+
+        @Override
+        public boolean stop(long tick) {
+            return this.replay.stop(tick + this.offset);
+        }
+    }
+}
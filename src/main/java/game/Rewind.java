@@ -0,0 +1,126 @@
+package game;
+
+import game.actor.Actor;
+import game.actor.ActorStore;
+import game.nav.Navigator;
+import java.nio.ByteBuffer;
+
+/**
+ * Ring buffer of the world's dynamic state after each of the last N ticks, for rewinding and rollback.
+ *
+ * A state is the tick count, the camera position, the player's and every store actor's moving state
+ * (see Actor.save() and ActorStore.save()), and with Game.AI the navigator's steering state (see
+ * Navigator.save()), packed into a fixed size binary record. The records are
+ * allocated up front, one per tick of history, so capturing a tick allocates nothing, and capturing or
+ * restoring one costs a copy of the state.
+ *
+ * The world itself (walls and props) isn't captured. It doesn't change, except for the chunked world,
+ * whose chunks are loaded around the restored player by the next tick. The navigation graph is built
+ * from the chunks, so there is no rewinding the chunked world with Game.AI.
+ */
+public class Rewind {
+    public static final int HEADER_SIZE = 8 + 4 + 4; // Tick, camera x and y.
+
+    private final ByteBuffer[] states;
+    private final int actors; // Store actors a state has room for.
+    private final Navigator navigator; // Of Game.WORLD, saved with the actors. Null without Game.AI.
+    private long newest = -1; // Tick of the newest state held.
+    private int count = 0; // States held, for ticks (newest - count, newest].
+
+    /**
+     * Hold the states of the given number of ticks, for a store of the given number of actors.
+     */
+    public Rewind(int length, int actors) {
+        this.actors = actors;
+        this.navigator = Game.WORLD.navigator;
+        this.states = new ByteBuffer[length];
+
+        int size = Rewind.stateSize(actors, this.navigator != null);
+        for(int a = 0; a < length; a++) {
+            this.states[a] = ByteBuffer.allocate(size);
+        }
+    }
+
+    /**
+     * Bytes per state, with or without the navigator's steering state.
+     */
+    public static int stateSize(int actors, boolean navigation) {
+        return HEADER_SIZE + Actor.STATE_SIZE + ActorStore.stateSize(actors) + (navigation ? Navigator.stateSize(actors) : 0);
+    }
+
+    /**
+     * Capture the state after the tick just run, replacing the oldest one if the buffer is full.
+     */
+    public void capture() {
+        long tick = Game.TICKS;
+        if(this.count > 0 && tick != this.newest + 1) {
+            // Not a continuation of the ticks held, e.g. the world was created again.
+            this.count = 0;
+        }
+
+        if(Game.ACTORS.size() > this.actors) {
+            throw new IllegalStateException("Rewind buffer has room for " + this.actors + " actors, not " + Game.ACTORS.size() + ".");
+        }
+
+        ByteBuffer out = this.states[(int)(tick % this.states.length)];
+        out.clear();
+        out.putLong(tick);
+        out.putInt(Game.CAMERA.x);
+        out.putInt(Game.CAMERA.y);
+        Game.PLAYER.save(out);
+        Game.ACTORS.save(out);
+        if(this.navigator != null) {
+            this.navigator.save(out);
+        }
+
+        this.newest = tick;
+        this.count = Math.min(this.count + 1, this.states.length);
+    }
+
+    /**
+     * Restore the state after the given tick, and forget the states after it.
+     *
+     * @return False if the tick isn't held, in which case nothing changes.
+     */
+    public boolean rollback(long tick) {
+        if(tick > this.newest || tick <= this.newest - this.count || tick < 0) {
+            return false;
+        }
+
+        ByteBuffer in = this.states[(int)(tick % this.states.length)];
+        in.clear();
+        Game.TICKS = in.getLong();
+        Game.CAMERA.x = in.getInt();
+        Game.CAMERA.y = in.getInt();
+        Game.PLAYER.restore(in);
+        Game.ACTORS.restore(in);
+        if(this.navigator != null) {
+            this.navigator.restore(in);
+        }
+
+        this.count -= (int)(this.newest - tick);
+        this.newest = tick;
+
+        return true;
+    }
+
+    /**
+     * Restore the state one tick before the newest.
+     *
+     * @return False if there is no older state.
+     */
+    public boolean back() {
+        return this.rollback(this.newest - 1);
+    }
+
+    /**
+     * Number of ticks that can be rewound.
+     */
+    public int size() {
+        return Math.max(0, this.count - 1);
+    }
+
+    public int capacity() {
+        return this.states.length;
+    }
+}
@@ -0,0 +1,363 @@
+package game;
+
+import game.actor.Actor;
+import game.actor.Movement;
+import game.actor.Player;
+import game.nav.Navigator;
+import game.util.Histogram;
+import game.world.ChunkedWorld;
+import game.world.LevelFile;
+import game.world.WallIndex;
+import game.world.World;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End to end benchmarks of the whole loop: canonical scenarios run headless through Game.logic() and a
+ * Camera.draw() into an offscreen image each tick, compared against a baseline.
+ *
+ * Usage: Scenarios [baseline file] [ticks N] [warmup N] [tolerance T] [only name,..] [update]
+ *
+ *   stock   The world Game.start() plays, with the player running the soak script.
+ *   wide    A generated world 100 times as wide, 500 chunks of the endless world, the player running right.
+ *   slides  The steep angle slide demonstration repeated along flat ground, with 2000 store actors
+ *           falling onto it, climbing, and sliding down its steep sides, the player running right.
+ *   actors  The stock world with 4000 store actors.
+ *   chase   The stock world with 2000 store actors chasing the player (see game.nav.Navigator).
+ *
+ * Each scenario is warmed up for the warmup ticks (default 1000), then measured for N ticks (default
+ * 3000): ticks per second, tick and frame time percentiles, and bytes allocated per tick on this thread
+ * (so not by store actors stepping on the pool, above -Dsim.parallelThreshold of them).
+ *
+ * Each scenario is compared with its line in the baseline file (default scenarios/baseline.txt, kept
+ * out of the resources as it belongs to a machine, not the game), and the run exits with status 1 if
+ * any is a regression: ticks per second more than the tolerance (default .2) below the baseline, or
+ * bytes allocated per tick more than ALLOCATION_SLACK above it. The slack absorbs one-off allocations,
+ * such as class loading and compilation, which come to a few bytes per tick over a run; garbage made
+ * every tick, e.g. boxing per actor, comes to far more. With update, the measurements are written to
+ * the baseline file instead. Throughput depends on the machine, so the baseline is only meaningful on
+ * the one it was written on.
+ */
+public class Scenarios {
+    public static final String DEFAULT_BASELINE = "scenarios/baseline.txt";
+    public static final int ALLOCATION_SLACK = 64; // Bytes per tick over the baseline before allocation counts as a regression.
+    private static final int WIDE_CHUNKS = 500;
+    private static final int SLIDES = 20; // Slide demonstrations in the slides level, one per 1000 wide.
+
+    /**
+     * One scenario: its world, and the player's controls.
+     */
+    private static abstract class Scenario {
+        final String name;
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        abstract World create();
+
+        Headless.Input input() {
+            return RUN_RIGHT;
+        }
+    }
+
+    /**
+     * Measurements of one scenario.
+     */
+    public static class Result {
+        public String name;
+        public double ticksPerSecond;
+        public final Histogram frames = new Histogram(); // Tick and frame, nanoseconds.
+        public long bytesPerTick = -1; // -1 if allocations can't be counted.
+    }
+
+    private static final Headless.Input RUN_RIGHT = new Headless.Input() {
+        @Override
+        public void apply(long tick, Player player) {
+            if(tick == 0) {
+                player.hold(false, true);
+            }
+        }
+    };
+
+    private static final Scenario[] SCENARIOS = {
+        new Scenario("stock") {
+            @Override
+            World create() {
+                return new World(0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, 0, Movement.DEFAULT);
+            }
+
+            @Override
+            Headless.Input input() {
+                return soak();
+            }
+        },
+        new Scenario("wide") {
+            @Override
+            World create() {
+                // The endless world's chunks, generated up front.
+                int height = Headless.VIEW_HEIGHT * 5;
+                ChunkedWorld chunks = new ChunkedWorld(0, ChunkedWorld.DEFAULT_CHUNK_WIDTH, height, 0);
+                List<Line2D> walls = new ArrayList<Line2D>();
+                List<Actor> gobs = new ArrayList<Actor>();
+                for(int a = 0; a < WIDE_CHUNKS; a++) {
+                    chunks.generate(a, walls, gobs);
+                }
+
+                int[] props = new int[gobs.size() * LevelFile.PROP_INTS];
+                for(int a = 0; a < gobs.size(); a++) {
+                    Actor gob = gobs.get(a);
+                    int p = a * LevelFile.PROP_INTS;
+                    props[p] = LevelFile.PROP_TILE;
+                    props[p + 1] = (int)gob.x;
+                    props[p + 2] = (int)gob.y;
+                    props[p + 3] = (int)gob.w;
+                    props[p + 4] = (int)gob.h;
+                }
+
+                WallIndex index = new WallIndex(walls, WallIndex.DEFAULT_CELL_SIZE);
+                LevelFile.Level level = new LevelFile.Level(WIDE_CHUNKS * ChunkedWorld.DEFAULT_CHUNK_WIDTH, height, index, props);
+                return new World(0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, level, 0, Movement.DEFAULT);
+            }
+        },
+        new Scenario("slides") {
+            @Override
+            World create() {
+                // Flat ground with the ledges at the height actors spawn just above, so they all land on the slopes.
+                int width = SLIDES * 1000;
+                int height = Headless.VIEW_HEIGHT * 5;
+                double ground = height / 2 + 500;
+                List<Line2D> walls = new ArrayList<Line2D>();
+                walls.add(new Line2D.Double(0, 0, 0, height));
+                walls.add(new Line2D.Double(width, 0, width, height));
+                walls.add(new Line2D.Double(0, ground, width, ground));
+                for(int a = 0; a < SLIDES; a++) {
+                    World.addSlideDemonstration(walls, a * 1000, ground);
+                }
+
+                WallIndex index = new WallIndex(walls, WallIndex.DEFAULT_CELL_SIZE);
+                LevelFile.Level level = new LevelFile.Level(width, height, index, new int[0]);
+                return new World(0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, level, 2000, Movement.DEFAULT);
+            }
+        },
+        new Scenario("actors") {
+            @Override
+            World create() {
+                return new World(0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, 4000, Movement.DEFAULT);
+            }
+
+            @Override
+            Headless.Input input() {
+                return soak();
+            }
+        },
+        new Scenario("chase") {
+            @Override
+            World create() {
+                World world = new World(0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, 2000, Movement.DEFAULT);
+                if(world.navigator == null) {
+                    world.navigator = new Navigator(world.actors, world.wallIndex, world.movement, Navigator.DEFAULT_CACHE_SIZE);
+                }
+                return world;
+            }
+
+            @Override
+            Headless.Input input() {
+                return soak();
+            }
+        },
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        String baseline = DEFAULT_BASELINE;
+        int ticks = 3000;
+        int warmup = 1000;
+        double tolerance = .2;
+        List<String> only = null;
+        boolean update = false;
+        for(int a = 0; a < args.length; a++) {
+            if(args[a].equals("ticks")) {
+                ticks = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("warmup")) {
+                warmup = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("tolerance")) {
+                tolerance = Double.parseDouble(args[++a]);
+            } else if(args[a].equals("only")) {
+                only = Arrays.asList(args[++a].split(","));
+            } else if(args[a].equals("update")) {
+                update = true;
+            } else {
+                baseline = args[a];
+            }
+        }
+
+        File file = new File(baseline);
+        Map<String, double[]> expected = file.isFile() ? read(file) : new LinkedHashMap<String, double[]>();
+
+        int regressions = 0;
+        for(Scenario scenario : SCENARIOS) {
+            if(only != null && !only.contains(scenario.name)) {
+                continue;
+            }
+
+            Result r = Scenarios.run(scenario, warmup, ticks);
+            Histogram f = r.frames;
+            String line = String.format("%s: %.0f ticks/s, tick and frame p50 %.2f p90 %.2f p99 %.2f max %.2f ms, %s allocated per tick",
+                r.name, r.ticksPerSecond, f.percentile(50) / 1e6, f.percentile(90) / 1e6, f.percentile(99) / 1e6, f.max() / 1e6,
+                r.bytesPerTick < 0 ? "unknown bytes" : r.bytesPerTick + " bytes");
+
+            double[] base = expected.get(r.name);
+            if(update) {
+                expected.put(r.name, new double[] { Math.round(r.ticksPerSecond), r.bytesPerTick });
+            } else if(base == null) {
+                line += ", no baseline";
+            } else {
+                line += String.format(", baseline %.0f ticks/s (%+.1f%%), %.0f bytes", base[0], 100 * (r.ticksPerSecond / base[0] - 1), base[1]);
+                boolean slower = r.ticksPerSecond < base[0] * (1 - tolerance);
+                boolean allocating = r.bytesPerTick > base[1] + ALLOCATION_SLACK;
+                if(slower || allocating) {
+                    line += ": REGRESSION" + (slower ? " (throughput)" : "") + (allocating ? " (allocation)" : "");
+                    regressions++;
+                }
+            }
+            Game.log(line);
+        }
+
+        if(update) {
+            Scenarios.write(file, expected);
+            Game.log("Wrote " + file + ".");
+        } else if(regressions > 0) {
+            Game.log(regressions + " scenarios more than " + Math.round(tolerance * 100) + "% below the baseline's throughput, or allocating more than " + ALLOCATION_SLACK + " bytes per tick over it.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Play the scenario's world: warm up, then measure.
+     */
+    private static Result run(Scenario scenario, int warmup, int ticks) {
+        Game.create(scenario.create());
+        Headless.Input input = scenario.input();
+
+        BufferedImage canvas = new BufferedImage(Game.CAMERA.getViewWidth(), Game.CAMERA.getViewHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = canvas.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setBackground(Color.WHITE);
+
+        com.sun.management.ThreadMXBean threads = null;
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        long thread = Thread.currentThread().getId();
+
+        Result r = new Result();
+        r.name = scenario.name;
+
+        long tick = 0;
+        for(; tick < warmup; tick++) {
+            Scenarios.step(input, tick, g, canvas);
+        }
+
+        // Start from a clean heap, so the previous scenario's and the warmup's garbage isn't collected while measuring.
+        System.gc();
+
+        long bytes = threads != null ? threads.getThreadAllocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        for(int a = 0; a < ticks; a++, tick++) {
+            long t = System.nanoTime();
+            Scenarios.step(input, tick, g, canvas);
+            r.frames.record(System.nanoTime() - t);
+        }
+        r.ticksPerSecond = ticks / ((System.nanoTime() - start) / 1e9);
+        if(threads != null) {
+            r.bytesPerTick = (threads.getThreadAllocatedBytes(thread) - bytes) / ticks;
+        }
+
+        g.dispose();
+
+        return r;
+    }
+
+    /**
+     * One tick, then a frame.
+     */
+    private static void step(Headless.Input input, long tick, Graphics2D g, BufferedImage canvas) {
+        input.apply(tick, Game.PLAYER);
+        Game.logic();
+
+        g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        Game.VIEW.draw(g);
+    }
+
+    /**
+     * The headless soak script, back and forth across the stock world.
+     */
+    private static Headless.Input soak() {
+        InputStream in = Scenarios.class.getClassLoader().getResourceAsStream("scripts/soak.txt");
+        try {
+            return ScriptedInput.parse(in);
+        } catch(Exception e) {
+            throw new RuntimeException("Can't read scripts/soak.txt", e);
+        }
+    }
+
+    /**
+     * Read a baseline: one scenario per line, its name, ticks per second and bytes allocated per tick.
+     * Blank lines and lines starting with # are ignored.
+     */
+    private static Map<String, double[]> read(File file) throws Exception {
+        Map<String, double[]> baseline = new LinkedHashMap<String, double[]>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                baseline.put(parts[0], new double[] { Double.parseDouble(parts[1]), Double.parseDouble(parts[2]) });
+            }
+        } finally {
+            reader.close();
+        }
+
+        return baseline;
+    }
+
+    private static void write(File file, Map<String, double[]> baseline) throws Exception {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            out.println("# Scenario baseline for 'gradle scenarios': name, ticks per second, bytes allocated per tick.");
+            out.println("# Written by 'gradle scenarios -Pupdate', on the machine the checks run on.");
+            for(Map.Entry<String, double[]> e : baseline.entrySet()) {
+                out.println(e.getKey() + " " + (long)e.getValue()[0] + " " + (long)e.getValue()[1]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
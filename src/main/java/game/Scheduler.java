@@ -0,0 +1,91 @@
+package game;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits out the rest of a frame in the game loop. The strategies trade CPU time for wake up precision:
+ *
+ *   sleep  Thread.sleep() for whole milliseconds. Cheapest, but usually wakes a millisecond or two late.
+ *   park   LockSupport.parkNanos() until shortly before the deadline, then spin. The default.
+ *   yield  Thread.yield() until the deadline. Most precise, but keeps a core busy.
+ *
+ * Select with -Dsim.scheduler=sleep|park|yield. -Dsim.spinNanos sets how long park spins for (default 1 ms).
+ */
+public abstract class Scheduler {
+    /**
+     * Return at or soon after the deadline, a System.nanoTime() value. Returns early if interrupted.
+     */
+    public abstract void waitUntil(long deadline);
+
+    public static Scheduler forName(String name) {
+        if("sleep".equals(name)) {
+            return new Sleep();
+        } else if("yield".equals(name)) {
+            return new Yield();
+        } else if("park".equals(name)) {
+            return new Park(Long.getLong("sim.spinNanos", 1000000));
+        }
+
+        throw new IllegalArgumentException("Unknown scheduler: " + name + " (expected sleep, park or yield).");
+    }
+
+    public static class Sleep extends Scheduler {
+        @Override
+        public void waitUntil(long deadline) {
+            // Round up. Waking early would mean an extra frame with no tick in it.
+            long millis = (deadline - System.nanoTime() + 999999) / 1000000;
+            if(millis > 0) {
+                try { Thread.sleep(millis); } catch(InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "sleep";
+        }
+    }
+
+    public static class Park extends Scheduler {
+        private final long spin; // Nanoseconds before the deadline to stop parking and start spinning.
+
+        public Park(long spin) {
+            this.spin = spin;
+        }
+
+        @Override
+        public void waitUntil(long deadline) {
+            // parkNanos can return early (spuriously or on unpark), so park again until within the spin window.
+            long remaining;
+            while((remaining = deadline - System.nanoTime()) > this.spin) {
+                LockSupport.parkNanos(remaining - this.spin);
+
+                if(Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+
+            while(System.nanoTime() - deadline < 0) {
+                // Spin.
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "park";
+        }
+    }
+
+    public static class Yield extends Scheduler {
+        @Override
+        public void waitUntil(long deadline) {
+            while(System.nanoTime() - deadline < 0) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "yield";
+        }
+    }
+}
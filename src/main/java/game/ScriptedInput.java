@@ -0,0 +1,123 @@
+package game;
+
+import game.actor.Player;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Input for headless runs, read from a script of timed control changes.
+ *
+ * One command per line: the tick, the control and, for left and right, on or off.
+ * Jump is an edge and takes no state. Blank lines and lines starting with # are ignored.
+ *
+ *   # Run right, jump over the first hill, stop.
+ *   0 right on
+ *   90 jump
+ *   300 right off
+ *
+ * Commands must be in tick order. A command applies before the logic of its tick runs.
+ */
+public class ScriptedInput implements Headless.Input {
+    private static final byte LEFT_ON = 0, LEFT_OFF = 1, RIGHT_ON = 2, RIGHT_OFF = 3, JUMP = 4;
+
+    private final long[] ticks;
+    private final byte[] commands;
+    private final int count;
+    private int next = 0;
+    private boolean left, right; // Held directions.
+
+    private ScriptedInput(long[] ticks, byte[] commands, int count) {
+        this.ticks = ticks;
+        this.commands = commands;
+        this.count = count;
+    }
+
+    public static ScriptedInput parse(InputStream in) throws Exception {
+        long[] ticks = new long[64];
+        byte[] commands = new byte[64];
+        int count = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split("\\s+");
+                long tick = Long.parseLong(parts[0]);
+                if(count > 0 && tick < ticks[count - 1]) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": commands must be in tick order.");
+                }
+
+                if(count == ticks.length) {
+                    ticks = Arrays.copyOf(ticks, count * 2);
+                    commands = Arrays.copyOf(commands, count * 2);
+                }
+
+                ticks[count] = tick;
+                commands[count] = command(parts, lineNumber);
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new ScriptedInput(ticks, commands, count);
+    }
+
+    private static byte command(String[] parts, int lineNumber) {
+        String control = parts.length > 1 ? parts[1] : "";
+
+        if(control.equals("left") || control.equals("right")) {
+            String state = parts.length == 3 ? parts[2] : "";
+            if(!state.equals("on") && !state.equals("off")) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + control + " takes on or off.");
+            }
+            boolean on = state.equals("on");
+
+            if(control.equals("left")) {
+                return on ? LEFT_ON : LEFT_OFF;
+            }
+            return on ? RIGHT_ON : RIGHT_OFF;
+        } else if(control.equals("jump")) {
+            if(parts.length != 2) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": jump takes no state.");
+            }
+            return JUMP;
+        }
+
+        throw new IllegalArgumentException("Line " + lineNumber + ": unknown control '" + control + "'.");
+    }
+
+    @Override
+    public void apply(long tick, Player player) {
+        while(this.next < this.count && this.ticks[this.next] <= tick) {
+            switch(this.commands[this.next]) {
+                case LEFT_ON: this.left = true; break;
+                case LEFT_OFF: this.left = false; break;
+                case RIGHT_ON: this.right = true; break;
+                case RIGHT_OFF: this.right = false; break;
+                case JUMP: player.requestJump(); break;
+            }
+
+            this.next++;
+        }
+
+        player.hold(this.left, this.right);
+    }
+
+    /**
+     * True once every command has been applied.
+     */
+    public boolean isDone() {
+        return this.next == this.count;
+    }
+}
@@ -0,0 +1,71 @@
+package game;
+
+import game.actor.ActorStore;
+
+/**
+ * Dynamic state of the world after one tick, for rendering on another thread.
+ *
+ * Besides the state after the tick, a snapshot carries the state after the tick before it,
+ * so the renderer can interpolate between the two. Snapshots are reused: the simulation
+ * captures into one while the renderer reads another (see SnapshotBuffer).
+ */
+public class Snapshot {
+    public long tick;
+    public long publishedAt; // System.nanoTime() when the snapshot was published.
+    public double remainder; // Time left in the accumulator after this tick, in milliseconds.
+
+    public int cameraX, cameraY, prevCameraX, prevCameraY;
+    public double cameraScale;
+    public double playerX, playerY, prevPlayerX, prevPlayerY;
+
+    public int actorCount;
+    public final double[] actorX, actorY, prevActorX, prevActorY;
+
+    public Snapshot(int actorCapacity) {
+        this.actorX = new double[actorCapacity];
+        this.actorY = new double[actorCapacity];
+        this.prevActorX = new double[actorCapacity];
+        this.prevActorY = new double[actorCapacity];
+    }
+
+    /**
+     * Capture the current world state. The previous state is taken from the last captured snapshot,
+     * or from the current state if there is none.
+     */
+    public void capture(Snapshot last, long tick, double remainder) {
+        ActorStore actors = Game.ACTORS;
+
+        this.tick = tick;
+        this.remainder = remainder;
+
+        this.cameraX = Game.CAMERA.x;
+        this.cameraY = Game.CAMERA.y;
+        this.cameraScale = Game.CAMERA.getScale();
+        this.playerX = Game.PLAYER.x;
+        this.playerY = Game.PLAYER.y;
+        this.actorCount = actors.size();
+        actors.copyPositions(this.actorX, this.actorY);
+
+        Snapshot prev = last != null ? last : this;
+        this.prevCameraX = prev.cameraX;
+        this.prevCameraY = prev.cameraY;
+        this.prevPlayerX = prev.playerX;
+        this.prevPlayerY = prev.playerY;
+        System.arraycopy(prev.actorX, 0, this.prevActorX, 0, this.actorCount);
+        System.arraycopy(prev.actorY, 0, this.prevActorY, 0, this.actorCount);
+    }
+
+    /**
+     * Fraction of a tick that has passed since the state after this tick became current, for
+     * interpolating from the previous state (0) to this state (1).
+     */
+    public double alpha(long now, double tick) {
+        double alpha = (this.remainder + (now - this.publishedAt) / 1e6) / tick;
+
+        return alpha < 0 ? 0 : (alpha > 1 ? 1 : alpha);
+    }
+
+    public static double lerp(double from, double to, double alpha) {
+        return from + (to - from) * alpha;
+    }
+}
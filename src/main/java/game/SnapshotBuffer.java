@@ -0,0 +1,55 @@
+package game;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free triple buffer handing snapshots from the simulation thread to the render thread.
+ *
+ * The writer owns one snapshot (back), the reader owns one (front), and the third (middle) is the
+ * latest published one. Publishing swaps back and middle; acquiring swaps middle and front if a new
+ * snapshot has been published since the last acquire. Neither side ever waits for the other, and the
+ * reader always gets the most recent complete snapshot.
+ *
+ * There must be one writer thread and one reader thread.
+ */
+public class SnapshotBuffer {
+    private static final int INDEX = 3;
+    private static final int FRESH = 4; // Set on the middle index when it holds an unread snapshot.
+
+    private final Snapshot[] snapshots = new Snapshot[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    private Snapshot last; // Last published snapshot, for the writer's previous state.
+
+    public SnapshotBuffer(int actorCapacity) {
+        for(int a = 0; a < this.snapshots.length; a++) {
+            this.snapshots[a] = new Snapshot(actorCapacity);
+        }
+    }
+
+    /**
+     * Writer: capture the world into the back snapshot and publish it.
+     */
+    public void publish(long tick, double remainder) {
+        Snapshot s = this.snapshots[this.back];
+        s.capture(this.last, tick, remainder);
+        s.publishedAt = System.nanoTime();
+
+        this.last = s;
+        this.back = this.middle.getAndSet(this.back | FRESH) & INDEX;
+    }
+
+    /**
+     * Reader: get the latest published snapshot, or null if nothing has been published yet.
+     * The snapshot stays valid until the next call.
+     */
+    public Snapshot acquire() {
+        if((this.middle.get() & FRESH) != 0) {
+            this.front = this.middle.getAndSet(this.front) & INDEX;
+        }
+
+        Snapshot s = this.snapshots[this.front];
+        return s.publishedAt == 0 ? null : s;
+    }
+}
@@ -1,8 +1,21 @@
 package game;
 
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.awt.Graphics2D;
+import game.actor.Actor;
+import game.util.Histogram;
 import java.awt.Color;
+import java.awt.DisplayMode;
 import java.awt.image.BufferedImage;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -11,7 +24,6 @@ import java.awt.GraphicsEnvironment;
 import java.awt.RenderingHints;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.geom.Rectangle2D;
 import javax.imageio.ImageIO;
 import org.apache.log4j.Logger;
 
@@ -19,18 +31,29 @@ import org.apache.log4j.Logger;
 public class Window extends JFrame {
     private static final Logger log = Logger.getLogger(Window.class);
     public static final GraphicsEnvironment graphicsEnvironment = GraphicsEnvironment.getLocalGraphicsEnvironment();
-    private final MPanel panel;
+    private final MPanel panel; // Passive rendering. Null in active mode.
+    private final ActiveCanvas canvas; // Active rendering. Null in passive mode.
     
-    public static final int SCREEN_WIDTH = graphicsEnvironment.getDefaultScreenDevice().getDisplayMode().getWidth();
-    public static final int SCREEN_HEIGHT = graphicsEnvironment.getDefaultScreenDevice().getDisplayMode().getHeight();
+    /*
+    Rendering mode. Passive (default) asks Swing to repaint the panel, and the frame is painted on the
+    event dispatch thread whenever Swing gets to it. Active (-Dsim.render=active) renders and presents
+    the frame directly from the game loop through a BufferStrategy. -Dsim.vsync=true asks the active
+    strategy for page flipping, which waits for the display's vertical blank on most pipelines.
+    */
+    public static final boolean ACTIVE = "active".equals(System.getProperty("sim.render"));
+    public static final boolean VSYNC = Boolean.getBoolean("sim.vsync");
     
     public final int w;
     public final int h;
     
-    private static Font FONT_TITLE;
     private static Font FONT_BASIC;
     private static Font FONT_MONOSPACED;
     
+    // The overlay is built in these rather than with string concatenation, so drawing it makes no garbage.
+    private static final StringBuilder TEXT = new StringBuilder(64);
+    private static char[] TEXT_CHARS = new char[64];
+    private static final FrameStats.Phase[] PHASES = FrameStats.Phase.values();
+    
     static {
         try {
             // Load fonts.
@@ -63,39 +86,165 @@ public class Window extends JFrame {
         
         this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         this.setSize(w, h);
-        this.setLocation((SCREEN_WIDTH / 2) - (w / 2), (SCREEN_HEIGHT / 2) - (h / 2));
+        
+        // Center on screen. The screen is resolved here rather than statically so the class can load without a display.
+        DisplayMode screen = graphicsEnvironment.getDefaultScreenDevice().getDisplayMode();
+        this.setLocation((screen.getWidth() / 2) - (w / 2), (screen.getHeight() / 2) - (h / 2));
         this.setIconImage(ImageIO.read(Window.class.getClassLoader().getResourceAsStream("images/gameicon.png")));
         
         // The window must be visible before creating the canvas in order to get the window's content pane size.
         this.setVisible(true);
         
         // Create drawing surface (canvas).
-        this.panel = new MPanel(this.getContentPane().getWidth(), this.getContentPane().getHeight());
-        this.add(panel);
+        if(ACTIVE) {
+            this.panel = null;
+            this.canvas = new ActiveCanvas(this.getContentPane().getWidth(), this.getContentPane().getHeight());
+            this.add(this.canvas);
+            this.validate();
+            this.canvas.createStrategy();
+        } else {
+            this.panel = new MPanel(this.getContentPane().getWidth(), this.getContentPane().getHeight());
+            this.canvas = null;
+            this.add(panel);
+        }
         
         // Register event listeners.
         this.registerKeyboardListener();
     }
     
     public void draw() {
-        this.panel.repaint();
+        if(this.canvas != null) {
+            this.canvas.render();
+        } else {
+            this.panel.repaint();
+        }
+    }
+    
+    /**
+     * Draw a frame and return once it is on screen, for a thread that draws frames in a loop. Active
+     * rendering already presents the frame before returning. Passive rendering waits for the event
+     * dispatch thread to paint the panel, so the loop runs at the rate frames are actually painted
+     * instead of spinning on repaint requests. Gives up after a second, e.g. while the window is hidden.
+     *
+     * @return False if no paint happened in time.
+     */
+    public boolean drawAndWait() {
+        if(this.canvas != null) {
+            this.canvas.render();
+            return true;
+        }
+        
+        return this.panel.repaintAndWait(TimeUnit.SECONDS.toNanos(1));
+    }
+    
+    /**
+     * The refresh rate of the display showing the window, or 60 if it isn't known.
+     */
+    public int getRefreshRate() {
+        int rate = this.getGraphicsConfiguration().getDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
     }
     
     private static void loadFonts() throws Exception {
         // Load and register fonts.
-        Font f = Font.createFont(Font.TRUETYPE_FONT, Window.class.getClassLoader().getResourceAsStream("fonts/BPreplay.otf"));
-        Window.graphicsEnvironment.registerFont(f);
-        FONT_TITLE = new Font(f.getFontName(), Font.PLAIN, 40);
-        
-        f = Font.createFont(Font.TRUETYPE_FONT, Window.class.getClassLoader().getResourceAsStream("fonts/advent-Bd1.otf"));
+        Font f = Font.createFont(Font.TRUETYPE_FONT, Window.class.getClassLoader().getResourceAsStream("fonts/advent-Bd1.otf"));
         Window.graphicsEnvironment.registerFont(f);
         FONT_BASIC = new Font(f.getFontName(), Font.PLAIN, 20);
         
         FONT_MONOSPACED = new Font("Monospaced", Font.PLAIN, 20);
     }
     
+    /**
+     * Render one frame of the given size: the game as seen through the camera, and the diagnostics overlay.
+     * The viewport is the size the frame will be displayed at.
+     */
+    private static void render(Graphics2D g, int width, int height, int viewportWidth, int viewportHeight) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        
+        // Clear.
+        g.setBackground(Color.WHITE);
+        g.clearRect(0, 0, width, height);
+        
+        // Draw game.
+        Game.draw(g);
+        
+        // Draw diagnostics overlay.
+        g.setColor(Color.BLACK);
+        g.setFont(FONT_MONOSPACED);
+        g.drawString("Simulation", 5, 20);
+        drawText(g, text().append("fps: ").append(Game.FPS), 5, 40);
+        drawText(g, text().append("sim fps: ").append(Game.SIMFPS).append(" / ").append(Math.round(Game.getTickRate())).append(", dropped: ").append(Game.DROPPED_TICKS), 5, 60);
+        drawText(g, text().append("render count: ").append(Game.VIEW != null ? Game.VIEW.renderCount : 0), 5, 80);
+        drawText(g, text().append("viewport: ").append(viewportWidth).append(", ").append(viewportHeight).append(", zoom: ").append(Math.round(Game.ZOOM * 100)).append('%'), 5, 100);
+        Actor player = Game.VIEW.getTarget(); // The player as drawn.
+        StringBuilder position = text().append("position: ").append((int)player.x).append(", ").append((int)player.y).append(", tick: ").append(Game.TICKS);
+        if(Game.REWINDING) {
+            position.append(" (rewinding)");
+        } else if(Game.PAUSED) {
+            position.append(" (paused)");
+        }
+        drawText(g, position, 5, 120);
+        
+        // Frame phase latencies over the last second, in milliseconds.
+        g.drawString("ms        p50   p99 p99.9   max", 5, 150);
+        int y = 170;
+        for(FrameStats.Phase phase : PHASES) {
+            Histogram.Summary s = Game.STATS.summary(phase);
+            StringBuilder line = text().append(phase.label);
+            while(line.length() < 7) {
+                line.append(' ');
+            }
+            
+            appendMillis(line, s.p50);
+            appendMillis(line, s.p99);
+            appendMillis(line, s.p999);
+            appendMillis(line, s.max);
+            drawText(g, line, 5, y);
+            y += 20;
+        }
+    }
+    
+    /**
+     * Start a line of overlay text.
+     */
+    private static StringBuilder text() {
+        TEXT.setLength(0);
+        return TEXT;
+    }
+    
+    private static void drawText(Graphics2D g, StringBuilder text, int x, int y) {
+        int length = text.length();
+        if(TEXT_CHARS.length < length) {
+            TEXT_CHARS = new char[length];
+        }
+        
+        text.getChars(0, length, TEXT_CHARS, 0);
+        g.drawChars(TEXT_CHARS, 0, length, x, y);
+    }
+    
+    /**
+     * Append nanoseconds as milliseconds, like String.format(" %5.2f", nanos / 1e6).
+     */
+    private static void appendMillis(StringBuilder text, long nanos) {
+        long hundredths = (nanos + 5000) / 10000;
+        int start = text.length();
+        
+        text.append(' ').append(hundredths / 100).append('.');
+        if(hundredths % 100 < 10) {
+            text.append('0');
+        }
+        text.append(hundredths % 100);
+        
+        while(text.length() - start < 6) {
+            text.insert(start, ' ');
+        }
+    }
+    
     private static class MPanel extends JPanel {
         private final BufferedImage canvas;
+        private volatile long paints = 0; // Paints finished.
+        private volatile Thread waiter; // Thread waiting in repaintAndWait(), woken after each paint.
         
         public MPanel(int w, int h) throws Exception {
             super();
@@ -105,36 +254,12 @@ public class Window extends JFrame {
         
         @Override
         protected void paintComponent(Graphics graphics) {
+            long start = System.nanoTime();
+            
             super.paintComponent(graphics);
             
             Graphics2D g = canvas.createGraphics();
-            
-            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            // Clear.
-            g.setBackground(Color.WHITE);
-            g.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            
-            // Draw game.
-            Game.draw(g);
-            
-            // Draw diagnostics overlay.
-            g.setColor(Color.BLACK);
-            g.setFont(FONT_MONOSPACED);
-            g.drawString("Simulation", 5, 20);
-            g.drawString("fps: " + Game.FPS, 5, 40);
-            g.drawString("render count: " + (Game.CAMERA != null ? Game.CAMERA.renderCount : 0), 5, 60);
-            g.drawString("viewport: " + this.getBounds().width + ", " + this.getBounds().height, 5, 80);
-            g.drawString("position: " + (int)Game.PLAYER.x + ", " + (int)Game.PLAYER.y, 5, 100);
-            
-            // Draw title.
-            g.setColor(Color.BLACK);
-            g.setFont(FONT_TITLE);
-            String title = "Simulation";
-            Rectangle2D r = g.getFontMetrics().getStringBounds(title, g);
-            //g.drawString(title, (this.canvas.getWidth() / 2) - ((int)r.getWidth() / 2), (this.canvas.getHeight() / 2) - ((int)r.getHeight() / 2));
-            
+            Window.render(g, canvas.getWidth(), canvas.getHeight(), this.getBounds().width, this.getBounds().height);
             g.dispose();
             
             /*
@@ -158,6 +283,135 @@ public class Window extends JFrame {
             size the user wants to make the window.
             */
             graphics.drawImage(canvas, 0, 0, this.getBounds().width, this.getBounds().height, null);
+            
+            Game.STATS.record(FrameStats.Phase.PAINT, System.nanoTime() - start);
+            
+            this.paints++; // Only the event dispatch thread paints.
+            Thread t = this.waiter;
+            if(t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+        
+        /**
+         * Ask for a repaint and wait until a paint finishes, or the timeout passes.
+         */
+        private boolean repaintAndWait(long timeout) {
+            long before = this.paints;
+            long deadline = System.nanoTime() + timeout;
+            this.waiter = Thread.currentThread();
+            this.repaint();
+            
+            try {
+                while(this.paints == before) {
+                    long left = deadline - System.nanoTime();
+                    if(left <= 0 || !Game.RUN) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, left);
+                }
+            } finally {
+                this.waiter = null;
+            }
+            
+            return true;
+        }
+    }
+    
+    /**
+     * Drawing surface for active rendering.
+     * 
+     * Frames are rendered at the original content size into a VolatileImage back buffer, which lives in
+     * video memory when the pipeline supports it, and then copied into the buffer strategy and shown.
+     * Scaling to the window follows MPanel, with a fast path: at the original size the copy is unscaled,
+     * and at an exact integer multiple of it the copy is a nearest neighbor pixel replication. Other sizes
+     * are squished with bilinear filtering.
+     */
+    @SuppressWarnings("serial") // Never serialized.
+    private static class ActiveCanvas extends Canvas {
+        private final int w;
+        private final int h;
+        private VolatileImage buffer;
+        private BufferStrategy strategy;
+        
+        public ActiveCanvas(int w, int h) {
+            super();
+            
+            this.w = w;
+            this.h = h;
+            
+            // Painting is driven by the game loop, not by AWT. Key events go to the frame.
+            this.setIgnoreRepaint(true);
+            this.setFocusable(false);
+        }
+        
+        /**
+         * Create the buffer strategy. The canvas must be displayable.
+         */
+        public void createStrategy() {
+            if(VSYNC) {
+                try {
+                    this.createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+                } catch(AWTException e) {
+                    log.warn("Page flipping not available, vsync is off.", e);
+                    this.createBufferStrategy(2);
+                }
+            } else {
+                this.createBufferStrategy(2);
+            }
+            
+            this.strategy = this.getBufferStrategy();
+        }
+        
+        public void render() {
+            long start = System.nanoTime();
+            
+            do {
+                // Render the frame into the back buffer, recreating it if the display configuration changed.
+                GraphicsConfiguration gc = this.getGraphicsConfiguration();
+                if(this.buffer == null || this.buffer.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    this.buffer = gc.createCompatibleVolatileImage(this.w, this.h);
+                }
+                
+                Graphics2D g = this.buffer.createGraphics();
+                Window.render(g, this.w, this.h, this.getWidth(), this.getHeight());
+                g.dispose();
+                
+                // Copy to the strategy and present. Either surface can lose its contents, in which case start over.
+                do {
+                    do {
+                        Graphics2D sg = (Graphics2D)this.strategy.getDrawGraphics();
+                        this.blit(sg);
+                        sg.dispose();
+                    } while(this.strategy.contentsRestored());
+                    
+                    long present = System.nanoTime();
+                    this.strategy.show();
+                    if(VSYNC) {
+                        Toolkit.getDefaultToolkit().sync();
+                    }
+                    Game.STATS.record(FrameStats.Phase.PRESENT, System.nanoTime() - present);
+                } while(this.strategy.contentsLost());
+            } while(this.buffer.contentsLost());
+            
+            Game.STATS.record(FrameStats.Phase.PAINT, System.nanoTime() - start);
+        }
+        
+        private void blit(Graphics2D g) {
+            int width = this.getWidth();
+            int height = this.getHeight();
+            
+            if(width == this.w && height == this.h) {
+                // Original size.
+                g.drawImage(this.buffer, 0, 0, null);
+            } else if(width % this.w == 0 && height % this.h == 0 && width / this.w == height / this.h) {
+                // Integer multiple. Every pixel becomes an exact square block.
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                g.drawImage(this.buffer, 0, 0, width, height, null);
+            } else {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(this.buffer, 0, 0, width, height, null);
+            }
         }
     }
     
@@ -170,12 +424,42 @@ public class Window extends JFrame {
             
             @Override
             public void keyPressed(KeyEvent ke) {
-                Game.PLAYER.keyPressed(ke);
+                // Adjust the simulation rate.
+                if(ke.getKeyCode() == KeyEvent.VK_EQUALS) {
+                    Game.setTickRate(Game.getTickRate() + 10);
+                } else if(ke.getKeyCode() == KeyEvent.VK_MINUS) {
+                    Game.setTickRate(Game.getTickRate() - 10);
+                }
+                
+                // Zoom out and in.
+                if(ke.getKeyCode() == KeyEvent.VK_OPEN_BRACKET) {
+                    Game.setZoom(Game.ZOOM / 2);
+                } else if(ke.getKeyCode() == KeyEvent.VK_CLOSE_BRACKET) {
+                    Game.setZoom(Game.ZOOM * 2);
+                }
+                
+                // Rewind, pause and single step.
+                if(ke.getKeyCode() == KeyEvent.VK_R) {
+                    Game.REWINDING = true;
+                } else if(ke.getKeyCode() == KeyEvent.VK_P) {
+                    Game.PAUSED = !Game.PAUSED;
+                } else if(ke.getKeyCode() == KeyEvent.VK_COMMA && Game.PAUSED) {
+                    Game.step(-1);
+                } else if(ke.getKeyCode() == KeyEvent.VK_PERIOD && Game.PAUSED) {
+                    Game.step(1);
+                }
+                
+                // The player's controls are applied by the game loop, between ticks.
+                Game.INPUT.offer(ke.getKeyCode(), true, System.nanoTime());
             }
             
             @Override
             public void keyReleased(KeyEvent ke) {
-                Game.PLAYER.keyReleased(ke);
+                if(ke.getKeyCode() == KeyEvent.VK_R) {
+                    Game.REWINDING = false;
+                }
+                
+                Game.INPUT.offer(ke.getKeyCode(), false, System.nanoTime());
             }
         };
         
@@ -0,0 +1,202 @@
+package game.actor;
+
+import java.util.Arrays;
+
+/**
+ * Loose grid spatial hash over the slots of an ActorStore, for culling and proximity queries.
+ *
+ * Each actor is filed under the cell holding its top left corner, in an intrusive doubly linked
+ * list per hash bucket, so moving an actor to another cell is a few array writes and nothing is
+ * allocated. Cells are hashed into a fixed table rather than laid out over the world, so the grid
+ * also works for the endless world. Queries widen the searched cells by the largest actor size,
+ * which is what makes the grid loose: an actor is only ever in one cell, however big it is.
+ *
+ * Not thread safe. Update and query from the logic thread.
+ */
+public class ActorGrid {
+    public static final double DEFAULT_CELL_SIZE = 128;
+
+    /**
+     * Receives the slots found by a query.
+     */
+    public interface Visitor {
+        void visit(int slot);
+    }
+
+    private final double[] x, y, w, h; // The store's arrays.
+    private final double cellSize;
+    private final int mask;
+    private final int[] heads; // First slot in each bucket, or -1.
+    private final int[] next, prev; // Bucket list links per slot, or -1.
+    private final int[] cellX, cellY; // Cell each slot is filed under.
+    private int count = 0;
+    private double maxW = 0, maxH = 0;
+
+    ActorGrid(double[] x, double[] y, double[] w, double[] h, double cellSize) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.h = h;
+        this.cellSize = cellSize;
+
+        int capacity = x.length;
+        int buckets = 64;
+        while(buckets < capacity) {
+            buckets <<= 1;
+        }
+
+        this.mask = buckets - 1;
+        this.heads = new int[buckets];
+        Arrays.fill(this.heads, -1);
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.cellX = new int[capacity];
+        this.cellY = new int[capacity];
+    }
+
+    /**
+     * File a new slot. Slots are added in order, as the store adds them.
+     */
+    void insert(int i) {
+        this.count = i + 1;
+        this.maxW = Math.max(this.maxW, this.w[i]);
+        this.maxH = Math.max(this.maxH, this.h[i]);
+        this.link(i, this.cell(this.x[i]), this.cell(this.y[i]));
+    }
+
+    /**
+     * Move each slot in [from, to) to the cell it's in now, if that has changed.
+     *
+     * @return The number of slots that changed cell.
+     */
+    int update(int from, int to) {
+        int moved = 0;
+
+        for(int i = from; i < to; i++) {
+            int cx = this.cell(this.x[i]);
+            int cy = this.cell(this.y[i]);
+
+            if(cx != this.cellX[i] || cy != this.cellY[i]) {
+                this.unlink(i);
+                this.link(i, cx, cy);
+                moved++;
+            }
+        }
+
+        return moved;
+    }
+
+    /**
+     * Visit every actor overlapping the rectangle, with the same edge rules as Rectangle.intersects().
+     */
+    public void query(double minX, double minY, double maxX, double maxY, Visitor visitor) {
+        int cx0 = this.cell(minX - this.maxW), cy0 = this.cell(minY - this.maxH);
+        int cx1 = this.cell(maxX), cy1 = this.cell(maxY);
+
+        if((long)(cx1 - cx0 + 1) * (cy1 - cy0 + 1) > this.count) {
+            // More cells than actors. Checking every actor is cheaper.
+            for(int i = 0; i < this.count; i++) {
+                if(this.overlaps(i, minX, minY, maxX, maxY)) {
+                    visitor.visit(i);
+                }
+            }
+
+            return;
+        }
+
+        for(int cy = cy0; cy <= cy1; cy++) {
+            for(int cx = cx0; cx <= cx1; cx++) {
+                // A bucket can hold other cells that hash to it, so check the cell as well as the bounds.
+                for(int i = this.heads[this.bucket(cx, cy)]; i != -1; i = this.next[i]) {
+                    if(this.cellX[i] == cx && this.cellY[i] == cy && this.overlaps(i, minX, minY, maxX, maxY)) {
+                        visitor.visit(i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit every actor whose bounds come within radius of the point.
+     */
+    public void query(double px, double py, double radius, Visitor visitor) {
+        int cx0 = this.cell(px - radius - this.maxW), cy0 = this.cell(py - radius - this.maxH);
+        int cx1 = this.cell(px + radius), cy1 = this.cell(py + radius);
+        double r2 = radius * radius;
+
+        if((long)(cx1 - cx0 + 1) * (cy1 - cy0 + 1) > this.count) {
+            for(int i = 0; i < this.count; i++) {
+                if(this.distanceSq(i, px, py) <= r2) {
+                    visitor.visit(i);
+                }
+            }
+
+            return;
+        }
+
+        for(int cy = cy0; cy <= cy1; cy++) {
+            for(int cx = cx0; cx <= cx1; cx++) {
+                for(int i = this.heads[this.bucket(cx, cy)]; i != -1; i = this.next[i]) {
+                    if(this.cellX[i] == cx && this.cellY[i] == cy && this.distanceSq(i, px, py) <= r2) {
+                        visitor.visit(i);
+                    }
+                }
+            }
+        }
+    }
+
+    public double getCellSize() {
+        return this.cellSize;
+    }
+
+    private boolean overlaps(int i, double minX, double minY, double maxX, double maxY) {
+        return this.x[i] + this.w[i] > minX && this.y[i] + this.h[i] > minY && this.x[i] < maxX && this.y[i] < maxY;
+    }
+
+    /**
+     * Squared distance from the point to the nearest point of the slot's bounds.
+     */
+    private double distanceSq(int i, double px, double py) {
+        double dx = Math.max(0, Math.max(this.x[i] - px, px - (this.x[i] + this.w[i])));
+        double dy = Math.max(0, Math.max(this.y[i] - py, py - (this.y[i] + this.h[i])));
+
+        return dx * dx + dy * dy;
+    }
+
+    private int cell(double v) {
+        return (int)Math.floor(v / this.cellSize);
+    }
+
+    private int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & this.mask;
+    }
+
+    private void link(int i, int cx, int cy) {
+        int b = this.bucket(cx, cy);
+        int head = this.heads[b];
+
+        this.next[i] = head;
+        this.prev[i] = -1;
+        if(head != -1) {
+            this.prev[head] = i;
+        }
+
+        this.heads[b] = i;
+        this.cellX[i] = cx;
+        this.cellY[i] = cy;
+    }
+
+    private void unlink(int i) {
+        int n = this.next[i], p = this.prev[i];
+
+        if(p != -1) {
+            this.next[p] = n;
+        } else {
+            this.heads[this.bucket(this.cellX[i], this.cellY[i])] = n;
+        }
+
+        if(n != -1) {
+            this.prev[n] = p;
+        }
+    }
+}
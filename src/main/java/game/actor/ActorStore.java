@@ -0,0 +1,395 @@
+package game.actor;
+
+import game.Game;
+import game.camera.Camera;
+import game.camera.Sprites;
+import game.util.MathHelper;
+import game.world.WallIndex;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Structure of arrays storage for large numbers of moving actors.
+ *
+ * Position, size, rotation, jumping state and input of each actor live in primitive
+ * arrays indexed by slot. step() moves every actor with the same rules as Actor.move(),
+ * walking the arrays in slot order through one scratch body, so a tick allocates nothing
+ * and touches memory sequentially. After each step, actors that crossed a cell boundary are
+ * moved in the store's ActorGrid, for culling and proximity queries.
+ *
+ * Use view(slot) to get an Actor for a slot, for rendering or for code that expects the Actor API.
+ */
+public class ActorStore {
+    // Input bits.
+    public static final byte LEFT = 1;
+    public static final byte RIGHT = 2;
+    public static final byte JUMP = 4; // Edge. Cleared once the jump has been attempted.
+    
+    private static final byte JUMPING = 8; // Jumping state, saved along with the input bits.
+
+    private final Movement movement;
+    private final int capacity;
+    private int count = 0;
+
+    private final double[] x, y, w, h;
+    private final double[] xRotation, yRotation;
+    private final boolean[] jumping;
+    private final byte[] input;
+    private final ActorGrid grid;
+
+    private final Movement.Body scratch = new Movement.Body();
+    
+    // Scratch bodies for pool workers. A body is only used by one task at a time on its thread.
+    private static final ThreadLocal<Movement.Body> SCRATCH = new ThreadLocal<Movement.Body>() {
+        @Override
+        protected Movement.Body initialValue() {
+            return new Movement.Body();
+        }
+    };
+    private final View view = new View();
+    
+    private StepTask stepTasks; // Task tree of the parallel step, reused while the slot count and threshold stay the same.
+    private WallIndex stepWalls; // Walls for the parallel step in progress.
+
+    public ActorStore(int capacity, Movement movement) {
+        this.capacity = capacity;
+        this.movement = movement;
+
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.w = new double[capacity];
+        this.h = new double[capacity];
+        this.xRotation = new double[capacity];
+        this.yRotation = new double[capacity];
+        this.jumping = new boolean[capacity];
+        this.input = new byte[capacity];
+        this.grid = new ActorGrid(this.x, this.y, this.w, this.h, ActorGrid.DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Add an actor at rest.
+     *
+     * @return The actor's slot.
+     */
+    public int add(double x, double y, double w, double h) {
+        if(this.count == this.capacity) {
+            throw new IllegalStateException("Actor store is full (" + this.capacity + ").");
+        }
+
+        int i = this.count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.w[i] = w;
+        this.h[i] = h;
+        this.xRotation[i] = MathHelper.PiOver2;
+        this.yRotation[i] = Math.PI;
+        this.jumping[i] = false;
+        this.input[i] = 0;
+        this.grid.insert(i);
+
+        return i;
+    }
+
+    /**
+     * Move every actor one tick.
+     */
+    public void step(WallIndex walls) {
+        this.step(walls, 0, this.count, this.scratch);
+        this.grid.update(0, this.count);
+    }
+
+    /**
+     * Move every actor one tick, split across the pool in chunks of at least threshold slots.
+     *
+     * Each actor's move reads only the walls and its own slot, and each slot is written by exactly
+     * one task, so the result is bit-identical to the serial step() regardless of the split or the
+     * number of threads. With threshold <= 0, or no more than threshold actors, this runs serially.
+     */
+    public void step(WallIndex walls, ForkJoinPool pool, int threshold) {
+        if(pool == null || threshold <= 0 || this.count <= threshold) {
+            this.step(walls);
+            return;
+        }
+        
+        if(this.stepTasks == null || this.stepTasks.to != this.count || this.stepTasks.threshold != threshold) {
+            this.stepTasks = new StepTask(0, this.count, threshold);
+        }
+        
+        this.stepWalls = walls;
+        this.stepTasks.reinitialize();
+        pool.invoke(this.stepTasks);
+        this.stepWalls = null;
+        
+        // The grid's lists are shared between slots, so it's brought up to date after the tasks, on this thread.
+        this.grid.update(0, this.count);
+    }
+    
+    /**
+     * Add the collision counts of the steps since the last call to the given counts, and start again from zero.
+     * Moves are only counted with Game.JFR.
+     */
+    public void drainCounts(Movement.Counts into) {
+        into.add(this.scratch.counts);
+        this.scratch.counts.clear();
+        
+        if(this.stepTasks != null) {
+            this.stepTasks.drainCounts(into);
+        }
+    }
+    
+    /**
+     * Move the actors in slots [from, to) one tick, using the given scratch body.
+     */
+    void step(WallIndex walls, int from, int to, Movement.Body b) {
+        Movement movement = this.movement;
+
+        for(int i = from; i < to; i++) {
+            // Load.
+            b.x = this.x[i];
+            b.y = this.y[i];
+            b.w = this.w[i];
+            b.h = this.h[i];
+            b.xRotation = this.xRotation[i];
+            b.yRotation = this.yRotation[i];
+            b.jumping = this.jumping[i];
+
+            byte in = this.input[i];
+            b.left = (in & LEFT) != 0;
+            b.right = (in & RIGHT) != 0;
+
+            if((in & JUMP) != 0) {
+                movement.jump(b);
+                this.input[i] = (byte)(in & ~JUMP);
+            }
+
+            movement.move(b, walls);
+
+            // Store.
+            this.x[i] = b.x;
+            this.y[i] = b.y;
+            this.xRotation[i] = b.xRotation;
+            this.yRotation[i] = b.yRotation;
+            this.jumping[i] = b.jumping;
+        }
+    }
+
+    /**
+     * Splits a slot range in half until it is no larger than the threshold, then steps it.
+     * The halves are built up front, so the tree can be reinitialized and run again every tick without allocating.
+     */
+    @SuppressWarnings("serial") // Never serialized.
+    private class StepTask extends RecursiveAction {
+        private final int from, to, threshold;
+        private final StepTask left, right; // Null for a leaf.
+        private final Movement.Counts counts = new Movement.Counts(); // Of a leaf's steps, taken from the thread's scratch body.
+        
+        private StepTask(int from, int to, int threshold) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            
+            if(to - from <= threshold) {
+                this.left = null;
+                this.right = null;
+            } else {
+                int mid = (from + to) >>> 1;
+                this.left = new StepTask(from, mid, threshold);
+                this.right = new StepTask(mid, to, threshold);
+            }
+        }
+        
+        @Override
+        protected void compute() {
+            if(this.left == null) {
+                Movement.Body b = SCRATCH.get();
+                ActorStore.this.step(ActorStore.this.stepWalls, this.from, this.to, b);
+                
+                if(Game.JFR) {
+                    this.counts.add(b.counts);
+                    b.counts.clear();
+                }
+                return;
+            }
+            
+            this.left.reinitialize();
+            this.right.reinitialize();
+            invokeAll(this.left, this.right);
+        }
+        
+        private void drainCounts(Movement.Counts into) {
+            into.add(this.counts);
+            this.counts.clear();
+            
+            if(this.left != null) {
+                this.left.drainCounts(into);
+                this.right.drainCounts(into);
+            }
+        }
+    }
+    
+    /**
+     * Spatial hash of the actors, up to date as of the last step.
+     */
+    public ActorGrid getGrid() {
+        return this.grid;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public double getX(int i) {
+        return this.x[i];
+    }
+
+    public double getY(int i) {
+        return this.y[i];
+    }
+
+    public double getW(int i) {
+        return this.w[i];
+    }
+
+    public double getH(int i) {
+        return this.h[i];
+    }
+
+    /**
+     * Copy every actor's position into the arrays, which must hold size() entries.
+     */
+    public void copyPositions(double[] xs, double[] ys) {
+        System.arraycopy(this.x, 0, xs, 0, this.count);
+        System.arraycopy(this.y, 0, ys, 0, this.count);
+    }
+    
+    /**
+     * Move a slot, e.g. to a position received from a server.
+     */
+    public void setPosition(int i, double x, double y) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.grid.update(i, i + 1);
+    }
+    
+    /**
+     * Bytes written by save() for the given number of actors.
+     */
+    public static int stateSize(int actors) {
+        return 4 + actors * (4 * 8 + 1);
+    }
+    
+    /**
+     * Write the moving state of every actor: position, rotations, jumping and input.
+     * Sizes don't change, so they aren't written.
+     */
+    public void save(ByteBuffer out) {
+        out.putInt(this.count);
+        for(int i = 0; i < this.count; i++) {
+            out.putDouble(this.x[i]);
+            out.putDouble(this.y[i]);
+            out.putDouble(this.xRotation[i]);
+            out.putDouble(this.yRotation[i]);
+            out.put((byte)(this.input[i] | (this.jumping[i] ? JUMPING : 0)));
+        }
+    }
+    
+    /**
+     * Read the state written by save() from this store, and bring the grid up to date.
+     */
+    public void restore(ByteBuffer in) {
+        int count = in.getInt();
+        if(count != this.count) {
+            throw new IllegalStateException("Saved state has " + count + " actors, the store has " + this.count + ".");
+        }
+        
+        for(int i = 0; i < count; i++) {
+            this.x[i] = in.getDouble();
+            this.y[i] = in.getDouble();
+            this.xRotation[i] = in.getDouble();
+            this.yRotation[i] = in.getDouble();
+            
+            byte flags = in.get();
+            this.jumping[i] = (flags & JUMPING) != 0;
+            this.input[i] = (byte)(flags & ~JUMPING);
+        }
+        
+        this.grid.update(0, count);
+    }
+    
+    public byte getInput(int i) {
+        return this.input[i];
+    }
+
+    public void setInput(int i, byte input) {
+        this.input[i] = input;
+    }
+
+    /**
+     * Request a jump on the slot's next step.
+     */
+    public void jump(int i) {
+        this.input[i] |= JUMP;
+    }
+
+    /**
+     * Get a view of the slot through the Actor API, for drawing and for code that reads an Actor, e.g. a
+     * camera target. The same view object is returned for every call, so a view is only valid until the
+     * next call. Controls, jumps and logic() go to the slot: logic() steps just this slot, as step() does.
+     */
+    public Actor view(int i) {
+        return this.view(i, this.x[i], this.y[i]);
+    }
+    
+    /**
+     * Get a view of the slot at the given position, e.g. a position interpolated for rendering. See view(int).
+     */
+    public Actor view(int i, double x, double y) {
+        this.view.slot = i;
+        this.view.x = x;
+        this.view.y = y;
+        this.view.w = this.w[i];
+        this.view.h = this.h[i];
+        this.view.left = (this.input[i] & LEFT) != 0;
+        this.view.right = (this.input[i] & RIGHT) != 0;
+
+        return this.view;
+    }
+
+    /**
+     * Flyweight Actor over one slot. Controls, jumps and logic go to the store; drawing uses the loaded position.
+     */
+    private class View extends Actor {
+        private int slot;
+
+        private View() {
+            super(0, 0, 0, 0);
+        }
+
+        @Override
+        public void logic(WallIndex walls) {
+            ActorStore store = ActorStore.this;
+            int i = this.slot;
+
+            store.input[i] = (byte)((store.input[i] & JUMP) | (this.left ? LEFT : 0) | (this.right ? RIGHT : 0));
+            store.step(walls, i, i + 1, store.scratch);
+            store.grid.update(i, i + 1);
+
+            store.view(i); // Load the stepped position.
+        }
+
+        @Override
+        public void jump() {
+            ActorStore.this.jump(this.slot);
+        }
+
+        @Override
+        public void draw(Graphics2D g) {
+            Camera view = Game.VIEW;
+
+            Sprites.drawOval(g, Color.DARK_GRAY, view.renderX(this.x), view.renderY(this.y), view.renderSize(this.w), view.renderSize(this.h));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package game.actor;
+
+import game.Game;
+import game.util.MathHelper;
+import game.world.WallIndex;
+
+/**
+ * Movement rules shared by Actor and ActorStore: horizontal momentum, jumping and falling,
+ * climbing slopes and sliding down slopes that are too steep.
+ *
+ * The rules operate on a Body, which holds the moving state of one actor. Actor keeps its own
+ * body. ActorStore loads each slot into a scratch body, moves it and stores it back, so both
+ * produce identical results for the same input.
+ */
+public class Movement {
+    public static final Movement DEFAULT = new Movement(7, 10, WallIndex.STEEP_ANGLE);
+    
+    // Horizontal movement variables
+    public final double xRotationSpeed = (Math.PI / 180) * 6;
+    public final double xSpeed;
+    
+    // Vertical movement variables
+    public final double yRotationSpeed = (Math.PI / 180) * 6;
+    public final double ySpeed;
+    public final double steepAngle; // Degress +/- from PI / 2 that constitutes a steep angle.
+    
+    private static final double SKIN = .01; // Gap left between a wall and an actor stopped by it.
+    
+    public Movement(double xSpeed, double ySpeed, double steepAngle) {
+        this.xSpeed = xSpeed;
+        this.ySpeed = ySpeed;
+        this.steepAngle = steepAngle;
+    }
+    
+    /**
+     * Moving state of one actor.
+     */
+    public static class Body {
+        public double x, y, w, h;
+        public boolean left, right;
+        public double xRotation = MathHelper.PiOver2; // Initial 90 degrees - No horizontal movement.
+        public double yRotation = Math.PI; // Initial 180 degress - No vertical movement.
+        public boolean jumping = false;
+        
+        // Reusable wall query and sweep results. Room for far more walls than a move's query box ever holds, so moves don't allocate.
+        final WallIndex.Result hits = new WallIndex.Result(256);
+        final WallIndex.Contact contact = new WallIndex.Contact();
+        
+        public final Counts counts = new Counts(); // Kept only with Game.JFR.
+        
+        public double centerX() {
+            return this.x + this.w / 2.0;
+        }
+        
+        public double centerY() {
+            return this.y + this.h / 2.0;
+        }
+    }
+    
+    /**
+     * Collision work done by moves, counted with -Dsim.jfr=true for the profiling events (see game.jfr.Events).
+     */
+    public static class Counts {
+        public long tests; // Wall intersection tests.
+        public long hits; // Sweeps that hit a wall.
+        public long climbs; // Moves up a slope.
+        public long slides; // Slides down a steep slope.
+        
+        public void add(Counts c) {
+            this.tests += c.tests;
+            this.hits += c.hits;
+            this.climbs += c.climbs;
+            this.slides += c.slides;
+        }
+        
+        public void clear() {
+            this.tests = 0;
+            this.hits = 0;
+            this.climbs = 0;
+            this.slides = 0;
+        }
+    }
+    
+    public void move(Body b, WallIndex walls) {
+        // Get current position, prior to move.
+        double px = b.centerX();
+        double py = b.centerY();
+        double curX = b.x;
+        double curY = b.y;
+        
+        // Horizontal movement
+        if(b.left) {
+            b.xRotation += this.xRotationSpeed;
+            if(b.xRotation > Math.PI) { b.xRotation = Math.PI; }
+        }
+        
+        if(b.right) {
+            b.xRotation -= this.xRotationSpeed;
+            if(b.xRotation < 0) { b.xRotation = 0; }
+        }
+        
+        if(!b.left && !b.right) {
+            // Rotate towards 90 to stop left/right movement.
+            if(b.xRotation > MathHelper.PiOver2) { b.xRotation -= this.xRotationSpeed; }
+            if(b.xRotation < MathHelper.PiOver2) { b.xRotation += this.xRotationSpeed; }
+            
+            /*
+            We'll always get within the rotationSpeed radians to PI / 2, but never hit it exactly.
+            If we get within that threshold, then set rotation to PI / 2.
+            */
+            if(b.xRotation <= (MathHelper.PiOver2 + this.xRotationSpeed) && b.xRotation >= (MathHelper.PiOver2 - this.xRotationSpeed)) {
+                b.xRotation = MathHelper.PiOver2;
+            }
+        }
+        
+        // Move on x.
+        b.x += Math.cos(b.xRotation) * this.xSpeed;
+        
+        /*
+        Fetch the walls once for everything the horizontal step can do: the move itself, and a climb
+        up a slope, which goes at most xSpeed sideways and xSpeed + 1 up. The checks below all sweep
+        against these candidates instead of querying again.
+        */
+        walls.query(px - this.xSpeed, py - this.xSpeed - 1, px + this.xSpeed, py, b.hits);
+        
+        // Check for wall collision. Respond to the first wall reached.
+        if(this.sweep(b, walls, px, py, b.centerX(), b.centerY())) {
+            int line = b.contact.wall;
+            
+            // Reset position.
+            b.x = curX;
+            
+            if(this.isSteep(walls, line)) {
+                // Angle is too steep to climb.
+                b.xRotation = MathHelper.PiOver2; // Reset horizontal momentum.
+            } else {
+                if(Game.JFR) { b.counts.climbs++; }
+                
+                // Move in x, y with respect to the angle of the line, and by a factor of the current horizontal momentum.
+                b.x += walls.getCos(line) * Math.cos(b.xRotation) * this.xSpeed;
+                
+                /*
+                There are subtle aspects that we need to consider when moving in y. This explanation is mostly
+                to do with why we move by the absolute value of the sine of the angle of the line * x rotation cosine.
+                
+                We don't need to move by the absolute value of the sine of the angle of the line. When we are
+                moving to the right up a slope, the slope has a positive angle, and because we are moving right,
+                we're factoring in the positive cosine of our x rotation. In this case, we move up.
+                
+                When we're moving left up a slope, the slope has a negative angle, but since we are moving left,
+                we factor in the negative cosine of our x rotation and the final result is positive.
+                Again, we move up.
+                
+                This works mathematically, and for the most part it works in practice. But there is a tricky situation
+                that can arise which breaks down the movement: The player can periodically end up at exactly the
+                right position on x, y at a join point of two lines. Imagine moving leftward up the slope and
+                ending up right at that point. The next movement left (negative cosine of our x rotation) will
+                intersect the downward slope (positive angle) and we end up trying to move down on y, instead of up.
+                Since the downward movement results in an intersection with the ground, the position is reset,
+                and we're stuck.
+                
+                The fix is to always move up. This works because even if we're colliding from underneath a slope,
+                we just fail the intersection test and reset the position. We add the additional 1 movement upward
+                to "clear" the tops of slopes and prevent intersecting the other side, just to be safe.
+                */
+                b.y -= Math.abs(walls.getSin(line) * Math.cos(b.xRotation) * this.xSpeed) + 1;
+                
+                // Check for *another* wall collision after the above movement.
+                if(this.sweep(b, walls, px, py, b.centerX(), b.centerY())) {
+                    // Reset position.
+                    b.x = curX;
+                    b.y = curY;
+                    b.xRotation = MathHelper.PiOver2; // Reset horizontal momentum.
+                }
+                
+                // Update current y position for the upcoming vertical movement and collision check.
+                curY = b.y;
+            }
+        }
+        
+        // Vertical movement
+        if(b.yRotation < MathHelper.ThreePiOver2) {
+            b.yRotation += this.yRotationSpeed;
+            
+            if(b.yRotation > MathHelper.ThreePiOver2) {
+                b.yRotation = MathHelper.ThreePiOver2;
+            }
+        }
+        
+        // Move on y.
+        double fromX = b.centerX();
+        double fromY = b.centerY();
+        double dy = -Math.sin(b.yRotation) * this.ySpeed;
+        b.y += dy;
+        
+        // Fetch the walls once for the fall and a slide down a steep slope, which goes at most ySpeed sideways and ySpeed further down.
+        walls.query(fromX - this.ySpeed, fromY - this.ySpeed, fromX + this.ySpeed, fromY + 2 * this.ySpeed, b.hits);
+        
+        // Check for collision.
+        if(this.sweep(b, walls, fromX, fromY, fromX, b.centerY())) {
+            int line = b.contact.wall;
+            
+            // Stop at the wall, however far the move would have gone.
+            double reach = dy * b.contact.time;
+            b.y = Math.abs(reach) > SKIN ? curY + reach - Math.copySign(SKIN, dy) : curY;
+            
+            if(dy > 0) {
+                // Ground collision.
+                b.jumping = false;
+                
+                // Slide down slope, if too steep.
+                if(this.isSteep(walls, line)) {
+                    // Angle is too steep.
+                    if(Game.JFR) { b.counts.slides++; }
+                    
+                    double landX = b.x;
+                    double landY = b.y;
+                    double cx = b.centerX();
+                    double cy = b.centerY();
+                    
+                    // Slide down slope.
+                    b.x -= walls.getCos(line) * this.ySpeed * Math.signum(walls.getAngle(line));
+                    b.y += Math.abs(walls.getSin(line)) * Math.abs(Math.sin(b.yRotation)) * this.ySpeed;
+                    
+                    // Check for *another* wall collision after the above movement.
+                    if(this.sweep(b, walls, cx, cy, b.centerX(), b.centerY())) {
+                        // Reset position.
+                        b.x = landX;
+                        b.y = landY;
+                        b.yRotation = Math.PI; // Reset vertical momentum.
+                    }
+                } else {
+                    // Angle is not too steep.
+                    b.yRotation = Math.PI; // Reset vertical momentum.
+                }
+            } else {
+                // Not a ground collision. Reset vertical momentum.
+                b.yRotation = Math.PI;
+            }
+        }
+    }
+    
+    /**
+     * Sweep against the walls fetched into the body, counting the tests with Game.JFR.
+     */
+    private boolean sweep(Body b, WallIndex walls, double x1, double y1, double x2, double y2) {
+        boolean hit = walls.sweep(x1, y1, x2, y2, b.hits, b.contact);
+        
+        if(Game.JFR) {
+            b.counts.tests += b.hits.count;
+            if(hit) { b.counts.hits++; }
+        }
+        
+        return hit;
+    }
+    
+    /**
+     * Steepness of a wall for these rules. Walls come classified against the default steep angle.
+     */
+    private boolean isSteep(WallIndex walls, int line) {
+        if(this.steepAngle == WallIndex.STEEP_ANGLE) {
+            return walls.isSteep(line);
+        }
+        
+        return WallIndex.isSteep(walls.getAngle(line), this.steepAngle);
+    }
+    
+    public void jump(Body b) {
+        // Allow a jump if not currently jumping, and if not falling too fast yet.
+        if(!b.jumping && b.yRotation < Math.PI + (this.yRotationSpeed * 7)) {
+            b.jumping = true;
+            b.yRotation = MathHelper.PiOver2;
+        }
+    }
+}
@@ -1,16 +1,57 @@
 package game.actor;
 
 import game.Game;
+import game.camera.Sprites;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Player extends Actor {
+    private final AtomicBoolean jumpRequested = new AtomicBoolean(); // Set by the controls, taken by the next tick.
+    private volatile boolean holdLeft, holdRight; // Held directions, copied to left and right by the next tick.
+    
     public Player(int x, int y, int w, int h) {
         super(x, y, w, h);
     }
     
+    /**
+     * Set the held directions for the next tick.
+     */
+    public void hold(boolean left, boolean right) {
+        this.holdLeft = left;
+        this.holdRight = right;
+    }
+    
+    /**
+     * Ask for a jump on the next tick.
+     */
+    public void requestJump() {
+        this.jumpRequested.set(true);
+    }
+    
+    /**
+     * Latch the controls for this tick and perform a requested jump.
+     * 
+     * @return The controls in effect for the tick, as ActorStore input bits.
+     */
+    public byte latchInput() {
+        // Copy the controls once, so the tick and any recording of it see the same input.
+        this.left = this.holdLeft;
+        this.right = this.holdRight;
+        
+        byte input = 0;
+        if(this.left) { input |= ActorStore.LEFT; }
+        if(this.right) { input |= ActorStore.RIGHT; }
+        
+        if(this.jumpRequested.getAndSet(false)) {
+            input |= ActorStore.JUMP;
+            this.jump();
+        }
+        
+        return input;
+    }
+    
     @Override
     public void logic() {
         super.logic();
@@ -18,32 +59,35 @@ public class Player extends Actor {
     
     @Override
     public void draw(Graphics2D g) {
-        Point p = Game.CAMERA.getRenderPosition(this.x, this.y);
-        
-        g.setColor(Color.BLACK);
-        g.drawOval(p.x, p.y, (int)Game.PLAYER.w, (int)Game.PLAYER.h);
+        Sprites.drawOval(g, Color.BLACK, Game.VIEW.renderX(this.x), Game.VIEW.renderY(this.y), Game.VIEW.renderSize(this.w), Game.VIEW.renderSize(this.h));
     }
     
-    public void keyPressed(KeyEvent ke) {
-        if(ke.getKeyCode() == KeyEvent.VK_A) {
-            this.left = true;
-        } else if(ke.getKeyCode() == KeyEvent.VK_D) {
-            this.right = true;
-        } else if(ke.getKeyCode() == KeyEvent.VK_W) {
-            this.jump();
-        } else if(ke.getKeyCode() == KeyEvent.VK_S) {
+    /**
+     * Apply a key press, on the game thread between ticks (see InputQueue).
+     */
+    public void keyPressed(int keyCode) {
+        if(keyCode == KeyEvent.VK_A) {
+            this.holdLeft = true;
+        } else if(keyCode == KeyEvent.VK_D) {
+            this.holdRight = true;
+        } else if(keyCode == KeyEvent.VK_W) {
+            this.requestJump();
+        } else if(keyCode == KeyEvent.VK_S) {
             
         }
     }
     
-    public void keyReleased(KeyEvent ke) {
-        if(ke.getKeyCode() == KeyEvent.VK_A) {
-            this.left = false;
-        } else if(ke.getKeyCode() == KeyEvent.VK_D) {
-            this.right = false;
-        } else if(ke.getKeyCode() == KeyEvent.VK_W) {
+    /**
+     * Apply a key release, on the game thread between ticks (see InputQueue).
+     */
+    public void keyReleased(int keyCode) {
+        if(keyCode == KeyEvent.VK_A) {
+            this.holdLeft = false;
+        } else if(keyCode == KeyEvent.VK_D) {
+            this.holdRight = false;
+        } else if(keyCode == KeyEvent.VK_W) {
             
-        } else if(ke.getKeyCode() == KeyEvent.VK_S) {
+        } else if(keyCode == KeyEvent.VK_S) {
             
         }
     }
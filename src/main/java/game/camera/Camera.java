@@ -1,20 +1,58 @@
 package game.camera;
 
 import game.Game;
+import game.Snapshot;
 import game.actor.Actor;
+import game.actor.ActorGrid;
+import game.actor.ActorStore;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Point;
-import java.awt.geom.Line2D;
+import game.world.WallIndex;
+import game.world.World;
 
+/**
+ * View of the world. The rectangle is the part of the world in view, in world units: the view size in
+ * pixels divided by the scale. Drawing code converts world positions to pixels with renderX(), renderY()
+ * and renderSize().
+ *
+ * Zoomed out (scale below 1), static content is drawn from a LevelOfDetail instead of one by one.
+ */
 public class Camera extends Rectangle {
+    public static final double MIN_SCALE = 1.0 / 64;
+    public static final double MAX_SCALE = 4;
+    
+    private final int viewWidth, viewHeight; // Pixels.
+    private double scale = 1; // Pixels per world unit.
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail();
     private Actor target;
     private final double trackFactor = .1;
     public int renderCount = 0;
     
+    // What the last frame drew and culled, for the profiling events (see game.jfr.Events). Static content drawn
+    // from the level of detail or the cache counts as the runs, blocks or chunks drawn, not as objects and walls.
+    public int gobsDrawn, gobsCulled, wallsDrawn, wallsCulled, actorsDrawn, actorsCulled, staticDrawn;
+    public boolean playerDrawn;
+    private StaticLayerCache staticLayer;
+    private final WallIndex.Result visibleWalls = new WallIndex.Result(); // Reusable wall query result.
+    private Graphics2D frameGraphics; // Target of drawActor during a frame.
+    private World world; // Bounds the camera. Null for none.
+    
+    // Draws each store actor found by the grid query.
+    private final ActorGrid.Visitor drawActor = new ActorGrid.Visitor() {
+        @Override
+        public void visit(int slot) {
+            Game.ACTORS.view(slot).draw(Camera.this.frameGraphics);
+            Camera.this.renderCount++;
+            Camera.this.actorsDrawn++;
+        }
+    };
+    
     public Camera(int x, int y, int w, int h) {
         super(x, y, w, h);
+        this.viewWidth = w;
+        this.viewHeight = h;
     }
     
     public void logic() {
@@ -23,38 +61,136 @@ public class Camera extends Rectangle {
         this.checkBounds();
     }
     
+    /**
+     * Draw the world as it is now.
+     */
     public void draw(Graphics2D g) {
+        this.drawFrame(g, Game.PLAYER, null, 0);
+    }
+    
+    /**
+     * Draw the world from a snapshot, interpolated between its previous and current tick.
+     * This camera and its target take the interpolated camera and player positions.
+     */
+    public void draw(Graphics2D g, Snapshot s, double alpha) {
+        if(s.cameraScale != this.scale) {
+            this.setScale(s.cameraScale);
+        }
+        
+        this.x = (int)Math.round(Snapshot.lerp(s.prevCameraX, s.cameraX, alpha));
+        this.y = (int)Math.round(Snapshot.lerp(s.prevCameraY, s.cameraY, alpha));
+        this.target.x = Snapshot.lerp(s.prevPlayerX, s.playerX, alpha);
+        this.target.y = Snapshot.lerp(s.prevPlayerY, s.playerY, alpha);
+        
+        this.drawFrame(g, this.target, s, alpha);
+    }
+    
+    /**
+     * Draw static content, store actors and the player. Store actor positions come from the snapshot if there is one.
+     */
+    private void drawFrame(Graphics2D g, Actor player, Snapshot s, double alpha) {
+        if(Game.JFR) { Game.PROFILER.beginDraw(); }
+        
+        Game.VIEW = this;
         this.renderCount = 0;
+        this.gobsDrawn = this.gobsCulled = this.wallsDrawn = this.wallsCulled = this.actorsDrawn = this.actorsCulled = this.staticDrawn = 0;
+        this.playerDrawn = false;
         
+        if(this.scale < 1 || (this.staticLayer != null && this.scale == 1)) {
+            // Static objects and walls come from the level of detail when zoomed out, or from the cache, which is drawn
+            // at the normal scale. Only dynamic objects are drawn one by one.
+            if(this.scale < 1) {
+                this.staticDrawn = this.levelOfDetail.draw(g, this);
+            } else {
+                this.staticDrawn = this.staticLayer.draw(g, this);
+            }
+            this.renderCount += this.staticDrawn;
+            
+            for(Actor a : Game.GOBS) {
+                if(a.isStatic()) {
+                    continue;
+                }
+                
+                if(!this.intersects(a.getRect())) {
+                    this.gobsCulled++;
+                    continue;
+                }
+                
+                a.draw(g);
+                this.renderCount++;
+                this.gobsDrawn++;
+            }
+        } else {
+            this.drawStatic(g);
+        }
+        
+        // Draw store actors.
+        ActorStore actors = Game.ACTORS;
+        int actorCount = s == null ? actors.size() : s.actorCount;
+        if(s == null) {
+            // Only the actors in cells near the view are looked at.
+            this.frameGraphics = g;
+            actors.getGrid().query(this.x, this.y, this.x + this.width, this.y + this.height, this.drawActor);
+            this.frameGraphics = null;
+        } else {
+            // The grid belongs to the logic thread and may be mid update, so interpolated frames check every actor.
+            for(int a = 0; a < s.actorCount; a++) {
+                double ax = Snapshot.lerp(s.prevActorX[a], s.actorX[a], alpha);
+                double ay = Snapshot.lerp(s.prevActorY[a], s.actorY[a], alpha);
+                
+                if(!this.intersects(ax, ay, actors.getW(a), actors.getH(a))) {
+                    continue;
+                }
+                
+                actors.view(a, ax, ay).draw(g);
+                this.renderCount++;
+                this.actorsDrawn++;
+            }
+        }
+        this.actorsCulled = actorCount - this.actorsDrawn;
+        
+        // Draw player.
+        if(this.intersects(player.getRect())) {
+            player.draw(g);
+            this.renderCount++;
+            this.playerDrawn = true;
+        }
+        
+        if(Game.JFR) { Game.PROFILER.endDraw(this); }
+    }
+    
+    /**
+     * Draw every visible game object and wall directly.
+     */
+    private void drawStatic(Graphics2D g) {
         for(Actor a : Game.GOBS) {
             // Don't render objects that are off screen (ie. outside the camera's view).
             if(!this.intersects(a.getRect())) {
+                this.gobsCulled++;
                 continue;
             }
             
             a.draw(g);
             this.renderCount++;
+            this.gobsDrawn++;
         }
         
         // Draw walls.
         g.setColor(Color.BLACK);
-        for(Line2D line : Game.WALLS) {
-            if(!line.intersects(this)) {
+        WallIndex walls = Game.WALL_INDEX;
+        walls.query(this, this.visibleWalls);
+        for(int a = 0; a < this.visibleWalls.count; a++) {
+            int line = this.visibleWalls.ids[a];
+            
+            if(!walls.intersects(line, this)) {
                 continue;
             }
             
-            Point p1 = getRenderPosition(line.getX1(), line.getY1());
-            Point p2 = getRenderPosition(line.getX2(), line.getY2());
-            
-            g.drawLine((int)p1.getX(), (int)p1.getY(), (int)p2.getX(), (int)p2.getY());
-            this.renderCount++;
-        }
-        
-        // Draw player.
-        if(this.intersects(Game.PLAYER.getRect())) {
-            Game.PLAYER.draw(g);
+            g.drawLine(this.renderX(walls.getX1(line)), this.renderY(walls.getY1(line)), this.renderX(walls.getX2(line)), this.renderY(walls.getY2(line)));
             this.renderCount++;
+            this.wallsDrawn++;
         }
+        this.wallsCulled = walls.size() - this.wallsDrawn; // Left out by the index query or the exact test.
     }
     
     private void trackTarget() {
@@ -80,27 +216,106 @@ public class Camera extends Rectangle {
     }
     
     private void checkBounds() {
-        if(this.x < 0) {
+        World world = this.world;
+        if(world == null) {
+            return;
+        }
+        
+        if(world.chunks != null) {
+            // Chunked world, no left or right edge.
+        } else if(this.width >= world.width) {
+            // Zoomed out past the edges.
+            this.x = (world.width - this.width) / 2;
+        } else if(this.x < 0) {
             this.x = 0;
-        } else if(this.x + this.width > Game.WORLD_WIDTH) {
-            this.x = Game.WORLD_WIDTH - this.width;
+        } else if(this.x + this.width > world.width) {
+            this.x = world.width - this.width;
         }
         
-        if(this.y < 0) {
+        if(this.height >= world.height) {
+            this.y = (world.height - this.height) / 2;
+        } else if(this.y < 0) {
             this.y = 0;
-        } else if(this.y + this.height > Game.WORLD_HEIGHT) {
-            this.y = Game.WORLD_HEIGHT - this.height;
+        } else if(this.y + this.height > world.height) {
+            this.y = world.height - this.height;
         }
     }
     
+    /**
+     * Draw static content from the given cache, or directly when null.
+     */
+    public void setStaticLayer(StaticLayerCache cache) {
+        this.staticLayer = cache;
+    }
+    
+    /**
+     * Set the pixels per world unit, keeping the center of the view where it is.
+     * The scale is clamped to MIN_SCALE and MAX_SCALE.
+     */
+    public void setScale(double scale) {
+        double centerX = this.getCenterX();
+        double centerY = this.getCenterY();
+        
+        this.scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+        this.width = (int)Math.ceil(this.viewWidth / this.scale);
+        this.height = (int)Math.ceil(this.viewHeight / this.scale);
+        this.x = (int)(centerX - this.width / 2.0);
+        this.y = (int)(centerY - this.height / 2.0);
+    }
+    
+    public int getViewWidth() {
+        return this.viewWidth;
+    }
+    
+    public int getViewHeight() {
+        return this.viewHeight;
+    }
+    
+    public double getScale() {
+        return this.scale;
+    }
+    
+    /**
+     * Keep the camera inside the world's edges.
+     */
+    public void setWorld(World world) {
+        this.world = world;
+    }
+    
     public void setTarget(Actor a) {
         this.target = a;
     }
     
+    public Actor getTarget() {
+        return this.target;
+    }
+    
     /**
      * Get the position of a point as viewed through the camera.
+     * Allocates; drawing code should use renderX() and renderY().
      */
     public Point getRenderPosition(double x, double y) {
-        return new Point((int)(x - this.x), (int)(y - this.y));
+        return new Point(this.renderX(x), this.renderY(y));
+    }
+    
+    /**
+     * Get the x coordinate of a point as viewed through the camera.
+     */
+    public int renderX(double x) {
+        return (int)((x - this.x) * this.scale);
+    }
+    
+    /**
+     * Get the y coordinate of a point as viewed through the camera.
+     */
+    public int renderY(double y) {
+        return (int)((y - this.y) * this.scale);
+    }
+    
+    /**
+     * Get a length as viewed through the camera.
+     */
+    public int renderSize(double length) {
+        return (int)(length * this.scale);
     }
 }
\ No newline at end of file
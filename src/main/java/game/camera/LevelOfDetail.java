@@ -0,0 +1,306 @@
+package game.camera;
+
+import game.Game;
+import game.actor.Actor;
+import game.world.WallIndex;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static content simplified for drawing zoomed out, so a view of the whole world costs about as much
+ * to draw as the screen has room for, not as much as the world has walls and tiles.
+ *
+ * Scales below 1 are split into bands of a factor of two: band b covers scales down to 2^-(b+1). For
+ * each band, built the first time it's drawn:
+ *
+ * Walls are joined into polylines where one wall starts where the last one ended, simplified with the
+ * Douglas-Peucker algorithm to within TOLERANCE pixels at the band's smallest scale, and cut into runs
+ * of at most RUN points so runs off screen can be skipped.
+ *
+ * Static game objects (the background grid) are merged into blocks of at least BLOCK pixels at the
+ * band's smallest scale: each block is the bounds of the objects whose corner falls in one cell of a
+ * coarse grid, and is drawn as a single tile.
+ *
+ * Everything is rebuilt when Game.WORLD_VERSION changes.
+ */
+public class LevelOfDetail {
+    public static final double TOLERANCE = .5; // Pixels a simplified wall may stray from the original.
+    public static final int BLOCK = 16; // Smallest block side in pixels.
+    public static final int BANDS = (int)Math.floor(-Math.log(Camera.MIN_SCALE) / Math.log(2)) + 1; // Down to Camera.MIN_SCALE, which falls in the last band.
+    private static final int RUN = 32; // Points per polyline run.
+
+    private final Band[] bands = new Band[BANDS];
+    private int worldVersion = -1; // Game.WORLD_VERSION the bands were built from.
+
+    /**
+     * Simplified content for one band.
+     */
+    private static class Band {
+        // Polyline runs: points starts[r] to starts[r + 1] - 1 of xs and ys, within the bounds.
+        double[] xs = new double[64], ys = new double[64];
+        int points = 0;
+        int[] starts = new int[16];
+        double[] minX = new double[16], minY = new double[16], maxX = new double[16], maxY = new double[16];
+        int runs = 0;
+
+        // Blocks.
+        int[] blockX, blockY, blockW, blockH;
+        int blocks = 0;
+    }
+
+    /**
+     * Band for a scale below 1.
+     */
+    public static int band(double scale) {
+        int band = (int)Math.floor(-Math.log(scale) / Math.log(2));
+        return Math.max(0, Math.min(BANDS - 1, band));
+    }
+
+    /**
+     * Draw the simplified static content as seen through the camera, which is zoomed out.
+     *
+     * @return The number of wall runs and blocks drawn.
+     */
+    public int draw(Graphics2D g, Camera camera) {
+        int version = Game.WORLD_VERSION;
+        if(version != this.worldVersion) {
+            this.worldVersion = version;
+            Arrays.fill(this.bands, null);
+        }
+
+        int b = band(camera.getScale());
+        if(this.bands[b] == null) {
+            this.bands[b] = build(Game.WALL_INDEX, Game.GOBS, Math.pow(2, -(b + 1)));
+        }
+        Band band = this.bands[b];
+
+        int drawn = 0;
+
+        // Blocks.
+        for(int a = 0; a < band.blocks; a++) {
+            if(!camera.intersects(band.blockX[a], band.blockY[a], band.blockW[a], band.blockH[a])) {
+                continue;
+            }
+
+            int x = camera.renderX(band.blockX[a]);
+            int y = camera.renderY(band.blockY[a]);
+            int w = camera.renderX(band.blockX[a] + band.blockW[a]) - x;
+            int h = camera.renderY(band.blockY[a] + band.blockH[a]) - y;
+
+            g.setColor(Game.TILE_FILL);
+            g.fillRect(x, y, w, h);
+            g.setColor(Game.TILE_LINE);
+            g.drawRect(x, y, w, h);
+            drawn++;
+        }
+
+        // Walls.
+        g.setColor(Color.BLACK);
+        for(int r = 0; r < band.runs; r++) {
+            if(band.maxX[r] < camera.x || band.minX[r] > camera.x + camera.width || band.maxY[r] < camera.y || band.minY[r] > camera.y + camera.height) {
+                continue;
+            }
+
+            int end = band.starts[r + 1];
+            int px = camera.renderX(band.xs[band.starts[r]]);
+            int py = camera.renderY(band.ys[band.starts[r]]);
+            for(int p = band.starts[r] + 1; p < end; p++) {
+                int x = camera.renderX(band.xs[p]);
+                int y = camera.renderY(band.ys[p]);
+                g.drawLine(px, py, x, y);
+                px = x;
+                py = y;
+            }
+            drawn++;
+        }
+
+        return drawn;
+    }
+
+    /**
+     * Simplify the walls and merge the static objects for drawing at the given scale and above.
+     */
+    private static Band build(WallIndex walls, Iterable<Actor> gobs, double scale) {
+        Band band = new Band();
+        double tolerance = TOLERANCE / scale;
+
+        // Join walls into polylines and simplify each one.
+        double[] xs = new double[64], ys = new double[64];
+        int n = 0;
+        for(int id = 0; id < walls.size(); id++) {
+            if(n > 0 && (walls.getX1(id) != xs[n - 1] || walls.getY1(id) != ys[n - 1])) {
+                simplify(band, xs, ys, n, tolerance);
+                n = 0;
+            }
+
+            if(n + 2 > xs.length) {
+                xs = Arrays.copyOf(xs, xs.length * 2);
+                ys = Arrays.copyOf(ys, ys.length * 2);
+            }
+
+            if(n == 0) {
+                xs[n] = walls.getX1(id);
+                ys[n] = walls.getY1(id);
+                n++;
+            }
+            xs[n] = walls.getX2(id);
+            ys[n] = walls.getY2(id);
+            n++;
+        }
+        if(n > 0) {
+            simplify(band, xs, ys, n, tolerance);
+        }
+
+        // Merge static objects by the coarse cell their corner is in.
+        double cell = BLOCK / scale;
+        Map<Long, Integer> cells = new HashMap<Long, Integer>(); // Block of each cell.
+        int[] x0 = new int[16], y0 = new int[16], x1 = new int[16], y1 = new int[16];
+        int blocks = 0;
+        for(Actor a : gobs) {
+            if(!a.isStatic()) {
+                continue;
+            }
+
+            long key = ((long)Math.floor(a.x / cell) << 32) | ((long)Math.floor(a.y / cell) & 0xffffffffL);
+            Integer block = cells.get(key);
+
+            if(block == null) {
+                block = blocks;
+                if(blocks == x0.length) {
+                    x0 = Arrays.copyOf(x0, blocks * 2);
+                    y0 = Arrays.copyOf(y0, blocks * 2);
+                    x1 = Arrays.copyOf(x1, blocks * 2);
+                    y1 = Arrays.copyOf(y1, blocks * 2);
+                }
+
+                cells.put(key, block);
+                x0[block] = (int)a.x;
+                y0[block] = (int)a.y;
+                x1[block] = (int)(a.x + a.w);
+                y1[block] = (int)(a.y + a.h);
+                blocks++;
+            } else {
+                x0[block] = Math.min(x0[block], (int)a.x);
+                y0[block] = Math.min(y0[block], (int)a.y);
+                x1[block] = Math.max(x1[block], (int)(a.x + a.w));
+                y1[block] = Math.max(y1[block], (int)(a.y + a.h));
+            }
+        }
+
+        band.blocks = blocks;
+        band.blockX = x0;
+        band.blockY = y0;
+        band.blockW = new int[blocks];
+        band.blockH = new int[blocks];
+        for(int a = 0; a < blocks; a++) {
+            band.blockW[a] = x1[a] - x0[a];
+            band.blockH[a] = y1[a] - y0[a];
+        }
+
+        return band;
+    }
+
+    /**
+     * Simplify a polyline with Douglas-Peucker and add it to the band in runs.
+     */
+    private static void simplify(Band band, double[] xs, double[] ys, int n, double tolerance) {
+        // Mark the points to keep. The ends always stay; the farthest point from a chord stays if it's beyond the tolerance.
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while(top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            double dx = xs[last] - xs[first];
+            double dy = ys[last] - ys[first];
+            double length = Math.hypot(dx, dy);
+
+            int farthest = -1;
+            double max = tolerance;
+            for(int p = first + 1; p < last; p++) {
+                double d = length > 0
+                    ? Math.abs(dy * (xs[p] - xs[first]) - dx * (ys[p] - ys[first])) / length
+                    : Math.hypot(xs[p] - xs[first], ys[p] - ys[first]);
+
+                if(d > max) {
+                    max = d;
+                    farthest = p;
+                }
+            }
+
+            if(farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        // Add the kept points in runs of at most RUN, each run starting where the last one ended.
+        int inRun = 0;
+        for(int p = 0; p < n; p++) {
+            if(!keep[p]) {
+                continue;
+            }
+
+            if(inRun == RUN) {
+                endRun(band);
+                addPoint(band, band.xs[band.points - 1], band.ys[band.points - 1]);
+                inRun = 1;
+            }
+
+            addPoint(band, xs[p], ys[p]);
+            inRun++;
+        }
+        endRun(band);
+    }
+
+    private static void addPoint(Band band, double x, double y) {
+        if(band.points == band.xs.length) {
+            band.xs = Arrays.copyOf(band.xs, band.points * 2);
+            band.ys = Arrays.copyOf(band.ys, band.points * 2);
+        }
+
+        if(band.points == band.starts[band.runs]) {
+            // First point of a run.
+            band.minX[band.runs] = band.maxX[band.runs] = x;
+            band.minY[band.runs] = band.maxY[band.runs] = y;
+        } else {
+            band.minX[band.runs] = Math.min(band.minX[band.runs], x);
+            band.maxX[band.runs] = Math.max(band.maxX[band.runs], x);
+            band.minY[band.runs] = Math.min(band.minY[band.runs], y);
+            band.maxY[band.runs] = Math.max(band.maxY[band.runs], y);
+        }
+
+        band.xs[band.points] = x;
+        band.ys[band.points] = y;
+        band.points++;
+    }
+
+    /**
+     * Close the run being added, and start the next one at the next point.
+     */
+    private static void endRun(Band band) {
+        if(band.runs + 2 > band.starts.length) {
+            int length = band.starts.length * 2;
+            band.starts = Arrays.copyOf(band.starts, length);
+            band.minX = Arrays.copyOf(band.minX, length);
+            band.minY = Arrays.copyOf(band.minY, length);
+            band.maxX = Arrays.copyOf(band.maxX, length);
+            band.maxY = Arrays.copyOf(band.maxY, length);
+        }
+
+        band.runs++;
+        band.starts[band.runs] = band.points;
+    }
+}
@@ -0,0 +1,71 @@
+package game.camera;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pre-rendered shape outlines, for drawing actors without allocating.
+ *
+ * Graphics2D.drawOval() builds a new shape to stroke on every call, a few hundred bytes of garbage
+ * per actor per frame. Blitting an image of the same outline allocates nothing. An image is rendered
+ * the first time a size and color is drawn, and kept from then on.
+ */
+public class Sprites {
+    private static final int PAD = 1; // Room around the outline for antialiasing.
+
+    private static int count = 0;
+    private static int[] widths = new int[8];
+    private static int[] heights = new int[8];
+    private static Color[] colors = new Color[8];
+    private static BufferedImage[] ovals = new BufferedImage[8];
+
+    /**
+     * Draw the outline of an oval, as Graphics2D.drawOval() would with antialiasing on.
+     */
+    public static void drawOval(Graphics2D g, Color color, int x, int y, int w, int h) {
+        g.drawImage(oval(color, w, h), x - PAD, y - PAD, null);
+    }
+
+    private static synchronized BufferedImage oval(Color color, int w, int h) {
+        for(int a = 0; a < count; a++) {
+            if(widths[a] == w && heights[a] == h && colors[a].equals(color)) {
+                return ovals[a];
+            }
+        }
+
+        if(count == ovals.length) {
+            widths = Arrays.copyOf(widths, count * 2);
+            heights = Arrays.copyOf(heights, count * 2);
+            colors = Arrays.copyOf(colors, count * 2);
+            ovals = Arrays.copyOf(ovals, count * 2);
+        }
+
+        BufferedImage image = createImage(w + 1 + 2 * PAD, h + 1 + 2 * PAD);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(color);
+        g.drawOval(PAD, PAD, w, h);
+        g.dispose();
+
+        widths[count] = w;
+        heights[count] = h;
+        colors[count] = color;
+        ovals[count] = image;
+        count++;
+
+        return image;
+    }
+
+    private static BufferedImage createImage(int w, int h) {
+        if(GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+    }
+}
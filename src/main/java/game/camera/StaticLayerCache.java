@@ -0,0 +1,170 @@
+package game.camera;
+
+import game.Game;
+import game.actor.Actor;
+import game.world.WallIndex;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Pre-rendered static content: the static game objects (the background grid) and the walls.
+ *
+ * The world is split into square chunks. A chunk is rendered into its own image the first time
+ * it is needed, and from then on drawing it is a single image blit. At most maxChunks images are
+ * kept; when a new chunk is needed and the cache is full, the least recently used chunk's image
+ * is reused for it.
+ *
+ * The cache must be cleared when static content changes. It clears itself when Game.WORLD_VERSION changes.
+ */
+public class StaticLayerCache {
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+    public static final int DEFAULT_MAX_CHUNKS = 64;
+
+    private final int chunkSize;
+    private final long[] keys;
+    private final long[] lastUsed;
+    private final BufferedImage[] images;
+    private int used = 0;
+    private long clock = 0;
+    private int worldVersion = -1; // Game.WORLD_VERSION the cached chunks were rendered from.
+
+    private final WallIndex.Result walls = new WallIndex.Result(); // Reusable wall query result.
+    private final Rectangle area = new Rectangle(); // Chunk area plus a margin for strokes that spill over the edge.
+
+    public StaticLayerCache(int chunkSize, int maxChunks) {
+        this.chunkSize = chunkSize;
+        this.keys = new long[maxChunks];
+        this.lastUsed = new long[maxChunks];
+        this.images = new BufferedImage[maxChunks];
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Draw the static layer as seen through the camera.
+     *
+     * @return The number of chunks drawn.
+     */
+    public int draw(Graphics2D g, Camera camera) {
+        // Chunks of the world have loaded since the cached chunks were rendered.
+        int version = Game.WORLD_VERSION;
+        if(version != this.worldVersion) {
+            this.worldVersion = version;
+            this.clear();
+        }
+
+        int c0 = Math.floorDiv(camera.x, this.chunkSize);
+        int r0 = Math.floorDiv(camera.y, this.chunkSize);
+        int c1 = Math.floorDiv(camera.x + camera.width - 1, this.chunkSize);
+        int r1 = Math.floorDiv(camera.y + camera.height - 1, this.chunkSize);
+
+        int drawn = 0;
+        for(int r = r0; r <= r1; r++) {
+            for(int c = c0; c <= c1; c++) {
+                BufferedImage image = this.chunk(c, r, camera);
+                g.drawImage(image, c * this.chunkSize - camera.x, r * this.chunkSize - camera.y, null);
+                drawn++;
+            }
+        }
+
+        return drawn;
+    }
+
+    /**
+     * Drop every cached chunk. The images are kept for reuse.
+     */
+    public void clear() {
+        this.used = 0;
+    }
+
+    private BufferedImage chunk(int col, int row, Camera camera) {
+        long key = ((long)col << 32) | (row & 0xffffffffL);
+        this.clock++;
+
+        // Hit.
+        for(int a = 0; a < this.used; a++) {
+            if(this.keys[a] == key) {
+                this.lastUsed[a] = this.clock;
+                return this.images[a];
+            }
+        }
+
+        // Miss. Take a free slot, or the least recently used one.
+        int slot;
+        if(this.used < this.keys.length) {
+            slot = this.used++;
+        } else {
+            slot = 0;
+            for(int a = 1; a < this.used; a++) {
+                if(this.lastUsed[a] < this.lastUsed[slot]) {
+                    slot = a;
+                }
+            }
+        }
+
+        if(this.images[slot] == null) {
+            this.images[slot] = createImage(this.chunkSize);
+        }
+
+        this.keys[slot] = key;
+        this.lastUsed[slot] = this.clock;
+        this.render(this.images[slot], col * this.chunkSize, row * this.chunkSize, camera);
+
+        return this.images[slot];
+    }
+
+    private static BufferedImage createImage(int size) {
+        // The background grid covers the world with opaque white, so the chunks can be opaque.
+        if(GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        }
+
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(size, size, Transparency.OPAQUE);
+    }
+
+    private void render(BufferedImage image, int x, int y, Camera camera) {
+        Graphics2D g = image.createGraphics();
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setBackground(Color.WHITE);
+        g.clearRect(0, 0, this.chunkSize, this.chunkSize);
+
+        this.area.setBounds(x - 2, y - 2, this.chunkSize + 4, this.chunkSize + 4);
+
+        /*
+        Static objects draw themselves at their camera render position. Shift the graphics
+        by the difference between the camera and the chunk origin so they land at their
+        position within the chunk instead.
+        */
+        g.translate(camera.x - x, camera.y - y);
+        for(Actor a : Game.GOBS) {
+            if(a.isStatic() && this.area.intersects(a.getRect())) {
+                a.draw(g);
+            }
+        }
+        g.translate(x - camera.x, y - camera.y);
+
+        // Walls.
+        g.setColor(Color.BLACK);
+        WallIndex index = Game.WALL_INDEX;
+        index.query(this.area, this.walls);
+        for(int a = 0; a < this.walls.count; a++) {
+            int line = this.walls.ids[a];
+
+            if(!index.intersects(line, this.area)) {
+                continue;
+            }
+
+            g.drawLine((int)(index.getX1(line) - x), (int)(index.getY1(line) - y), (int)(index.getX2(line) - x), (int)(index.getY2(line) - y));
+        }
+
+        g.dispose();
+    }
+}
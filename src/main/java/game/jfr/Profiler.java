@@ -0,0 +1,20 @@
+package game.jfr;
+
+import game.camera.Camera;
+
+/**
+ * Receives the start and end of each tick and frame, for -Dsim.jfr=true (Game.JFR).
+ *
+ * The implementation, Events, emits Java Flight Recorder events. It and the event classes are built in
+ * the jfr source set, as jdk.jfr needs Java 11 (or 8u262) while the game targets Java 8, and are loaded
+ * by name (see Game.PROFILER), so the game still builds and runs without them.
+ */
+public interface Profiler {
+    void beginTick();
+
+    void endTick();
+
+    void beginDraw();
+
+    void endDraw(Camera camera);
+}
@@ -0,0 +1,543 @@
+package game.nav;
+
+import game.actor.Movement;
+import game.world.WallIndex;
+import java.util.Arrays;
+
+/**
+ * Where an actor can get to in a set of walls, for pathfinding.
+ *
+ * Nodes are surfaces: the stretches of the walls an actor can stand on (those that aren't steep under
+ * the movement rules) between the points where other walls cross or meet them. Edges are the moves
+ * from one surface to another:
+ *
+ *   WALK  Holding a direction, along the surface and onto the next one.
+ *   DROP  Holding a direction, off the end of the surface or down a steep slope, onto one below.
+ *   JUMP  Holding a direction from a run-up point, jumping at a takeoff point, until landing.
+ *
+ * Each move is found by flying a probe body through it with Movement.move() itself, so an edge exists
+ * when the movement rules make it work, whatever the shape of the walls. An actor moves as its center
+ * point, so positions here are centers, which ride on the walls.
+ *
+ * The graph is built once per set of walls; path() searches it with A*.
+ */
+public class NavGraph {
+    public static final byte WALK = 0;
+    public static final byte DROP = 1;
+    public static final byte JUMP = 2;
+
+    private static final double JOIN = 1; // Crossings closer than this to an end or to each other don't split a surface.
+    private static final double INSET = 2; // Jumps run and take off at least this far inside the ends of a surface.
+    private static final double SPACING = 48; // Distance between the points moves are probed from along a surface.
+    private static final double RUN_UP = 60; // Distance run before a jump, where the surface allows.
+    private static final double JUMP_COST = 50; // Added to jumps, so walking is preferred over the same distance.
+    private static final double MAX_DROP = 4000; // Probes falling farther than this are given up on.
+    private static final int MAX_TICKS = 400; // Longest move probed.
+    private static final int STUCK_TICKS = 4; // A probe that doesn't move for this many ticks is blocked.
+    private static final double REST = .01; // Height above a wall a body comes to rest at.
+
+    // Ground: how far a center may be below or above a surface and still be standing on it. Bodies stop
+    // a hundredth short of walls, so one against the underside of a wall, e.g. wedged where two walls
+    // close together or bumping its head, isn't on it.
+    private static final double BELOW = .005;
+    private static final double ABOVE = 3;
+
+    private final WallIndex walls;
+    private final Movement movement;
+
+    // Surfaces. Those of wall w are wallFirst[w] to wallFirst[w + 1] - 1, in order of x.
+    private final int[] wallFirst;
+    private int[] surfaceWall;
+    private double[] minX, maxX;
+    private final double[] midX, midY;
+    private int surfaces = 0;
+
+    // Edges. Those leaving surface s are first[s] to first[s + 1] - 1.
+    private final int[] first;
+    private int[] from, to;
+    private byte[] type;
+    private byte[] direction; // -1 left, 1 right.
+    private double[] runUpX, fromX, toX; // Where the move starts running, where it jumps, and where it lands.
+    private double[] cost;
+    private boolean[] blocked; // Left out of paths (see block()).
+    private int edges = 0;
+
+    private final WallIndex.Result hits = new WallIndex.Result(256);
+    private final Movement.Body probe = new Movement.Body();
+    private boolean probeAirborne; // Whether the last probe left the ground.
+    private double probeLandX; // Where the last probe landed.
+
+    // Search state, reused between searches. A surface's entries are current if its stamp is the search's.
+    private final double[] g;
+    private final int[] via; // Edge the surface was reached by.
+    private final int[] stamp;
+    private final boolean[] closed;
+    private int search = 0;
+    private int[] heap = new int[64];
+    private double[] heapF = new double[64];
+    private int heapSize;
+
+    /**
+     * Build the graph of the walls for actors moving by the given rules.
+     */
+    public NavGraph(WallIndex walls, Movement movement) {
+        this.walls = walls;
+        this.movement = movement;
+
+        // Surfaces.
+        this.wallFirst = new int[walls.size() + 1];
+        this.surfaceWall = new int[walls.size() + 1];
+        this.minX = new double[walls.size() + 1];
+        this.maxX = new double[walls.size() + 1];
+        double[] cuts = new double[16];
+        for(int id = 0; id < walls.size(); id++) {
+            this.wallFirst[id] = this.surfaces;
+
+            double x0 = walls.getMinX(id), x1 = walls.getMaxX(id);
+            if(x1 <= x0 || WallIndex.isSteep(walls.getAngle(id), movement.steepAngle)) {
+                continue;
+            }
+
+            // Cut the wall where other walls cross or meet it.
+            int n = 0;
+            walls.query(x0, walls.getMinY(id), x1, walls.getMaxY(id), this.hits);
+            for(int a = 0; a < this.hits.count; a++) {
+                int other = this.hits.ids[a];
+                double x = other == id ? Double.NaN : this.crossing(id, other);
+                if(x > x0 + JOIN && x < x1 - JOIN) {
+                    if(n == cuts.length) {
+                        cuts = Arrays.copyOf(cuts, n * 2);
+                    }
+                    cuts[n++] = x;
+                }
+            }
+            Arrays.sort(cuts, 0, n);
+
+            double start = x0;
+            for(int a = 0; a < n; a++) {
+                if(cuts[a] - start >= JOIN && x1 - cuts[a] >= JOIN) {
+                    this.addSurface(id, start, cuts[a]);
+                    start = cuts[a];
+                }
+            }
+            this.addSurface(id, start, x1);
+        }
+        this.wallFirst[walls.size()] = this.surfaces;
+
+        this.midX = new double[this.surfaces];
+        this.midY = new double[this.surfaces];
+        for(int s = 0; s < this.surfaces; s++) {
+            this.midX[s] = (this.minX[s] + this.maxX[s]) / 2;
+            this.midY[s] = this.yAt(this.surfaceWall[s], this.midX[s]);
+        }
+
+        // Edges, probed surface by surface so they come out grouped by the surface they leave.
+        int capacity = this.surfaces * 4 + 16;
+        this.from = new int[capacity];
+        this.to = new int[capacity];
+        this.type = new byte[capacity];
+        this.direction = new byte[capacity];
+        this.runUpX = new double[capacity];
+        this.fromX = new double[capacity];
+        this.toX = new double[capacity];
+        this.cost = new double[capacity];
+        this.first = new int[this.surfaces + 1];
+        for(int s = 0; s < this.surfaces; s++) {
+            this.first[s] = this.edges;
+            this.probeSurface(s);
+        }
+        this.first[this.surfaces] = this.edges;
+        this.blocked = new boolean[this.edges];
+
+        this.g = new double[this.surfaces];
+        this.via = new int[this.surfaces];
+        this.stamp = new int[this.surfaces];
+        this.closed = new boolean[this.surfaces];
+    }
+
+    private void addSurface(int wall, double x0, double x1) {
+        if(this.surfaces == this.surfaceWall.length) {
+            int length = this.surfaces * 2;
+            this.surfaceWall = Arrays.copyOf(this.surfaceWall, length);
+            this.minX = Arrays.copyOf(this.minX, length);
+            this.maxX = Arrays.copyOf(this.maxX, length);
+        }
+
+        this.surfaceWall[this.surfaces] = wall;
+        this.minX[this.surfaces] = x0;
+        this.maxX[this.surfaces] = x1;
+        this.surfaces++;
+    }
+
+    /**
+     * Where another wall crosses or meets the wall, as an x on it, or NaN if it doesn't.
+     */
+    private double crossing(int wall, int other) {
+        WallIndex w = this.walls;
+        if(!w.intersectsLine(other, w.getX1(wall), w.getY1(wall), w.getX2(wall), w.getY2(wall))) {
+            return Double.NaN;
+        }
+
+        double ax = w.getX2(wall) - w.getX1(wall), ay = w.getY2(wall) - w.getY1(wall);
+        double bx = w.getX2(other) - w.getX1(other), by = w.getY2(other) - w.getY1(other);
+        double denominator = ax * by - ay * bx;
+        if(denominator == 0) {
+            return Double.NaN; // Parallel: joined end to end, or overlapping.
+        }
+
+        double t = ((w.getX1(other) - w.getX1(wall)) * by - (w.getY1(other) - w.getY1(wall)) * bx) / denominator;
+        return w.getX1(wall) + t * ax;
+    }
+
+    /**
+     * Probe the walks, drops and jumps leaving the surface, both ways.
+     */
+    private void probeSurface(int s) {
+        double lo = Math.min(this.minX[s] + INSET, this.midX[s]);
+        double hi = Math.max(this.maxX[s] - INSET, this.midX[s]);
+        int steps = (int)Math.ceil((hi - lo) / SPACING);
+
+        for(int side = -1; side <= 1; side += 2) {
+            /*
+            Walk off the end from each of the points. Where walls pinch together the rules can catch a
+            body or not depending on its speed, so the walk only counts if it gets to the same surface
+            from all of them.
+            */
+            int next = -2;
+            boolean airborne = false;
+            double landX = 0;
+            for(int a = 0; a <= steps && next != -1; a++) {
+                int to = this.fly(s, steps == 0 ? this.midX[s] : lo + (hi - lo) * a / steps, Double.NaN, side);
+                next = next == -2 || next == to ? to : -1;
+                airborne |= this.probeAirborne;
+                landX = this.probeLandX;
+            }
+            if(next >= 0) {
+                this.probeLandX = landX;
+                this.addEdge(s, next, airborne ? DROP : WALK, side, this.midX[s], this.midX[s], this.distance(s, next));
+            }
+
+            // Jump from the points, each after as much of a run-up as there is room for.
+            for(int a = 0; a <= steps; a++) {
+                double takeoff = steps == 0 ? this.midX[s] : lo + (hi - lo) * a / steps;
+                double runUp = Math.max(lo, Math.min(hi, takeoff - side * RUN_UP));
+
+                next = this.fly(s, runUp, takeoff, side);
+                if(next >= 0) {
+                    double cost = this.distance(s, next) + Math.abs(takeoff - this.midX[s]) + JUMP_COST;
+                    this.addEdge(s, next, JUMP, side, runUp, takeoff, cost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fly the probe from x on the surface holding the direction, jumping as it passes the takeoff unless that's NaN.
+     *
+     * @return The surface it comes to, or -1 if it stays on this one, gets stuck, or falls out of the world.
+     */
+    private int fly(int s, double x, double takeoff, int side) {
+        Movement.Body b = this.probe;
+        b.w = 0;
+        b.h = 0;
+        b.x = x;
+        b.y = this.yAt(this.surfaceWall[s], x) - REST;
+        b.xRotation = Math.PI / 2;
+        b.yRotation = Math.PI;
+        b.jumping = false;
+        b.left = side < 0;
+        b.right = side > 0;
+
+        boolean jumped = Double.isNaN(takeoff);
+        double startY = b.y;
+        double lastX = b.x;
+        int still = 0;
+        this.probeAirborne = false;
+
+        for(int t = 0; t < MAX_TICKS; t++) {
+            if(!jumped && (b.centerX() - takeoff) * side >= 0) {
+                this.movement.jump(b);
+                jumped = true;
+            }
+
+            this.movement.move(b, this.walls);
+
+            int on = this.locate(b.centerX(), b.centerY());
+            if(on < 0) {
+                this.probeAirborne = true;
+            } else if(on != s) {
+                if(!jumped) {
+                    return -1; // Ran off the surface before taking off.
+                }
+
+                this.probeLandX = b.centerX();
+                return on;
+            } else if(this.probeAirborne) {
+                return -1; // Came back down where it started.
+            }
+
+            still = Math.abs(b.x - lastX) < .01 && !b.jumping ? still + 1 : 0;
+            lastX = b.x;
+            if(still >= STUCK_TICKS || b.y > startY + MAX_DROP) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private void addEdge(int s, int next, byte type, int side, double runUpX, double fromX, double cost) {
+        // Keep only the cheapest move of a kind between two surfaces.
+        for(int e = this.first[s]; e < this.edges; e++) {
+            if(this.to[e] == next && this.type[e] == type) {
+                if(cost < this.cost[e]) {
+                    this.set(e, s, next, type, side, runUpX, fromX, cost);
+                }
+                return;
+            }
+        }
+
+        if(this.edges == this.to.length) {
+            int length = this.edges * 2;
+            this.from = Arrays.copyOf(this.from, length);
+            this.to = Arrays.copyOf(this.to, length);
+            this.type = Arrays.copyOf(this.type, length);
+            this.direction = Arrays.copyOf(this.direction, length);
+            this.runUpX = Arrays.copyOf(this.runUpX, length);
+            this.fromX = Arrays.copyOf(this.fromX, length);
+            this.toX = Arrays.copyOf(this.toX, length);
+            this.cost = Arrays.copyOf(this.cost, length);
+        }
+
+        this.set(this.edges++, s, next, type, side, runUpX, fromX, cost);
+    }
+
+    private void set(int e, int s, int next, byte type, int side, double runUpX, double fromX, double cost) {
+        this.from[e] = s;
+        this.to[e] = next;
+        this.type[e] = type;
+        this.direction[e] = (byte)side;
+        this.runUpX[e] = runUpX;
+        this.fromX[e] = fromX;
+        this.toX[e] = this.probeLandX;
+        this.cost[e] = cost;
+    }
+
+    /**
+     * Height of the wall at x.
+     */
+    private double yAt(int id, double x) {
+        double x1 = this.walls.getX1(id), y1 = this.walls.getY1(id);
+        double x2 = this.walls.getX2(id), y2 = this.walls.getY2(id);
+
+        return y1 + (x - x1) * (y2 - y1) / (x2 - x1);
+    }
+
+    private double distance(int a, int b) {
+        return Math.hypot(this.midX[b] - this.midX[a], this.midY[b] - this.midY[a]);
+    }
+
+    /**
+     * The surface an actor centered at the point is standing on, or -1 if it isn't on one.
+     */
+    public int locate(double x, double y) {
+        int found = -1;
+        double foundY = y + ABOVE;
+
+        this.walls.query(x, y - BELOW, x, y + ABOVE, this.hits);
+        for(int a = 0; a < this.hits.count; a++) {
+            int id = this.hits.ids[a];
+            if(this.wallFirst[id] == this.wallFirst[id + 1] || x < this.walls.getMinX(id) || x > this.walls.getMaxX(id)) {
+                continue;
+            }
+
+            double wy = this.yAt(id, x);
+            if(wy >= y - BELOW && wy <= foundY) {
+                // The wall's surface that spans x.
+                int s = this.wallFirst[id];
+                while(s + 1 < this.wallFirst[id + 1] && x > this.maxX[s]) {
+                    s++;
+                }
+
+                found = s;
+                foundY = wy;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Cheapest path between two surfaces, by A* with the straight line distance between surface midpoints as the estimate.
+     *
+     * @return The edges to take in order, none if the surfaces are the same, or null if there is no path.
+     */
+    public int[] path(int start, int goal) {
+        if(start == goal) {
+            return new int[0];
+        }
+
+        int s = ++this.search;
+        this.stamp[start] = s;
+        this.closed[start] = false;
+        this.g[start] = 0;
+        this.via[start] = -1;
+        this.heapSize = 0;
+        this.push(start, 0);
+
+        while(this.heapSize > 0) {
+            int n = this.pop();
+            if(this.closed[n]) {
+                continue; // Already reached more cheaply.
+            }
+            this.closed[n] = true;
+
+            if(n == goal) {
+                // Walk the edges back to the start.
+                int length = 0;
+                for(int v = goal; v != start; v = this.from[this.via[v]]) {
+                    length++;
+                }
+
+                int[] path = new int[length];
+                for(int v = goal; v != start; v = this.from[this.via[v]]) {
+                    path[--length] = this.via[v];
+                }
+                return path;
+            }
+
+            for(int e = this.first[n]; e < this.first[n + 1]; e++) {
+                int next = this.to[e];
+                double cost = this.g[n] + this.cost[e];
+
+                if(this.blocked[e]) {
+                    continue;
+                } else if(this.stamp[next] != s) {
+                    this.stamp[next] = s;
+                    this.closed[next] = false;
+                } else if(this.closed[next] || cost >= this.g[next]) {
+                    continue;
+                }
+
+                this.g[next] = cost;
+                this.via[next] = e;
+                this.push(next, cost + this.distance(next, goal));
+            }
+        }
+
+        return null;
+    }
+
+    private void push(int n, double f) {
+        if(this.heapSize == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, this.heapSize * 2);
+            this.heapF = Arrays.copyOf(this.heapF, this.heapSize * 2);
+        }
+
+        int i = this.heapSize++;
+        while(i > 0) {
+            int parent = (i - 1) >>> 1;
+            if(this.heapF[parent] <= f) {
+                break;
+            }
+            this.heap[i] = this.heap[parent];
+            this.heapF[i] = this.heapF[parent];
+            i = parent;
+        }
+        this.heap[i] = n;
+        this.heapF[i] = f;
+    }
+
+    private int pop() {
+        int top = this.heap[0];
+        int n = this.heap[--this.heapSize];
+        double f = this.heapF[this.heapSize];
+
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= this.heapSize) {
+                break;
+            }
+            if(child + 1 < this.heapSize && this.heapF[child + 1] < this.heapF[child]) {
+                child++;
+            }
+            if(this.heapF[child] >= f) {
+                break;
+            }
+            this.heap[i] = this.heap[child];
+            this.heapF[i] = this.heapF[child];
+            i = child;
+        }
+        this.heap[i] = n;
+        this.heapF[i] = f;
+
+        return top;
+    }
+
+    /**
+     * Leave the edge out of paths from now on, e.g. a move the probe made that actors keep failing.
+     */
+    public void block(int edge) {
+        this.blocked[edge] = true;
+    }
+
+    /**
+     * Put a blocked edge back into paths, e.g. when rolling back to before it was blocked.
+     */
+    public void unblock(int edge) {
+        this.blocked[edge] = false;
+    }
+
+    public boolean isBlocked(int edge) {
+        return this.blocked[edge];
+    }
+
+    public int getFrom(int edge) {
+        return this.from[edge];
+    }
+
+    public int getSurfaceCount() {
+        return this.surfaces;
+    }
+
+    public int getEdgeCount() {
+        return this.edges;
+    }
+
+    public byte getType(int edge) {
+        return this.type[edge];
+    }
+
+    /**
+     * Direction of the move: -1 left, 1 right.
+     */
+    public int getDirection(int edge) {
+        return this.direction[edge];
+    }
+
+    /**
+     * Where a jump starts running.
+     */
+    public double getRunUpX(int edge) {
+        return this.runUpX[edge];
+    }
+
+    /**
+     * Where a jump takes off.
+     */
+    public double getFromX(int edge) {
+        return this.fromX[edge];
+    }
+
+    /**
+     * Where the move landed when probed.
+     */
+    public double getToX(int edge) {
+        return this.toX[edge];
+    }
+
+    public int getTo(int edge) {
+        return this.to[edge];
+    }
+}
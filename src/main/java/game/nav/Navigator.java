@@ -0,0 +1,421 @@
+package game.nav;
+
+import game.actor.ActorStore;
+import game.actor.Movement;
+import game.world.WallIndex;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Steers store actors to their targets through a NavGraph, by setting their input each tick like a
+ * player would press keys.
+ *
+ * Each tick, an actor standing on a surface looks up its path from there to its target's surface in the
+ * shared PathCache, and follows the path's first edge: hold the edge's direction to walk or drop, or get
+ * behind the run-up point, run and jump at the takeoff point. An actor in the air keeps its input until
+ * it lands. The path is kept with the actor until it reaches another surface or the target moves to
+ * another one, so the cache is only consulted then, and the graph only searched for pairs not yet cached.
+ *
+ * When the walls change, e.g. as chunks load, the graph for the new walls is built on a background thread
+ * while the actors keep steering through the old one, and swapped in SWAP_TICKS later (see buildLater()).
+ *
+ * A jump that actors keep failing, e.g. because they take off a step later than the probe did, under a
+ * low ceiling, is blocked in the graph and the paths are searched again without it.
+ *
+ * Steering runs on the logic thread before the actors step, and depends only on the actors' positions
+ * and the steering state kept here, so it is as deterministic as the step. The steering state is saved
+ * and restored with the actors' for rewinding (see save()).
+ */
+public class Navigator {
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    // Ticks from new walls to steering through their graph. The swap waits for the build if it isn't done,
+    // so it happens at the same tick however long the build takes, and steering stays deterministic.
+    public static final int SWAP_TICKS = 30;
+    private static ExecutorService builder; // Builds graphs for buildLater(). Created on first use.
+    private static final double ARRIVE = 4; // Distance from a target on the same surface that counts as there.
+
+    // Run-up states.
+    private static final byte RUN = 0; // Running for the takeoff.
+    private static final byte BACK = 1; // Going back to the run-up point, having arrived past the takeoff.
+    private static final byte STOP = 2; // Stopping at the run-up point, to run from rest as the jump was probed.
+
+    // A jump an actor tries again this many ticks after last pressing jump for it has failed. After this
+    // many failures, by any actors, the edge is blocked.
+    private static final int RETRY = 2;
+    private static final int FAILURES = 3;
+
+    private final ActorStore actors;
+    private final Movement movement;
+    private final PathCache cache;
+    private NavGraph graph;
+
+    private int[] targetNode = new int[0]; // -1 for none.
+    private double[] targetX = new double[0];
+    private int[][] paths = new int[0][]; // Path each actor is following.
+    private int[] pathFrom = new int[0], pathTo = new int[0];
+    private byte[] runUp = new byte[0]; // Where an actor is in getting a run-up for a jump: one of the below.
+    private double[] lastX = new double[0]; // Center at the last steer.
+    private int[] jumpEdge = new int[0], jumpTick = new int[0]; // Edge an actor last pressed jump for, and when.
+    private byte[] failures = new byte[0]; // By edge.
+    private int[] failTicks = new int[0]; // Ticks of each edge's failures, FAILURES per edge, so a rollback can take later ones back.
+    private int blocked = 0;
+    private int ticks = 0;
+    private int followNode = -1; // Last surface the followed point stood on.
+    private Future<NavGraph> pending; // Graph being built for new walls, or null.
+    private int swapTick; // Tick the pending graph is swapped in at.
+
+    public Navigator(ActorStore actors, WallIndex walls, Movement movement, int cacheSize) {
+        this.actors = actors;
+        this.movement = movement;
+        this.cache = new PathCache(cacheSize);
+        this.setWalls(walls);
+    }
+
+    /**
+     * Build the graph for new walls now, and forget the paths through the old ones.
+     */
+    public void setWalls(WallIndex walls) {
+        this.cancelBuild();
+        this.setGraph(new NavGraph(walls, this.movement));
+    }
+
+    /**
+     * Build the graph for new walls in the background, e.g. after chunks load, and steer through it from
+     * SWAP_TICKS ticks on. Until then the actors steer through the old graph, which still covers the walls
+     * near the player. A build for walls that change again before the swap is dropped.
+     */
+    public void buildLater(final WallIndex walls) {
+        this.cancelBuild();
+        this.pending = builder().submit(new Callable<NavGraph>() {
+            @Override
+            public NavGraph call() {
+                return new NavGraph(walls, Navigator.this.movement);
+            }
+        });
+        this.swapTick = this.ticks + SWAP_TICKS;
+    }
+
+    private void cancelBuild() {
+        if(this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+    }
+
+    private static synchronized ExecutorService builder() {
+        if(builder == null) {
+            builder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "navigation graph builder");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        return builder;
+    }
+
+    /**
+     * Steer through a new graph, forgetting the paths through the old one.
+     */
+    private void setGraph(NavGraph graph) {
+        this.graph = graph;
+        this.failures = new byte[this.graph.getEdgeCount()];
+        this.failTicks = new int[this.graph.getEdgeCount() * FAILURES];
+        this.blocked = 0;
+        this.cache.clear();
+        this.followNode = -1;
+        Arrays.fill(this.targetNode, -1);
+        Arrays.fill(this.paths, null);
+    }
+
+    /**
+     * Send the actor toward the point, standing on the given surface (see locate()).
+     */
+    public void setTarget(int i, double x, int node) {
+        this.ensureCapacity(i + 1);
+        this.targetX[i] = x;
+        this.targetNode[i] = node;
+    }
+
+    /**
+     * Send every actor toward the point, e.g. the player's center. While the point is in the air, the
+     * actors head for the surface it last stood on.
+     */
+    public void follow(double x, double y) {
+        int node = this.graph.locate(x, y);
+        if(node >= 0) {
+            this.followNode = node;
+        }
+
+        this.ensureCapacity(this.actors.size());
+        for(int i = 0; i < this.actors.size(); i++) {
+            this.targetX[i] = x;
+            this.targetNode[i] = this.followNode;
+        }
+    }
+
+    /**
+     * The surface the point stands on, or -1.
+     */
+    public int locate(double x, double y) {
+        return this.graph.locate(x, y);
+    }
+
+    /**
+     * Set every actor's input for the next step.
+     */
+    public void steer() {
+        if(this.pending != null && this.ticks - this.swapTick >= 0) {
+            this.swapGraph();
+        }
+
+        this.ensureCapacity(this.actors.size());
+        for(int i = 0; i < this.actors.size(); i++) {
+            this.steer(i);
+        }
+        this.ticks++;
+    }
+
+    /**
+     * Steer through the pending graph, waiting for it if it isn't built yet.
+     */
+    private void swapGraph() {
+        Future<NavGraph> pending = this.pending;
+        this.pending = null;
+
+        try {
+            this.setGraph(pending.get());
+        } catch(InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void steer(int i) {
+        double cx = this.actors.getX(i) + this.actors.getW(i) / 2;
+        double cy = this.actors.getY(i) + this.actors.getH(i) / 2;
+        double speed = Math.abs(cx - this.lastX[i]);
+        this.lastX[i] = cx;
+
+        int node = this.graph.locate(cx, cy);
+        if(node < 0) {
+            return; // In the air or sliding. Carry on.
+        }
+
+        int target = this.targetNode[i];
+        if(target < 0) {
+            this.actors.setInput(i, (byte)0);
+            return;
+        }
+
+        if(node == target) {
+            this.actors.setInput(i, towards(cx, this.targetX[i], ARRIVE));
+            return;
+        }
+
+        int[] path = this.paths[i];
+        if(path == null || this.pathFrom[i] != node || this.pathTo[i] != target) {
+            path = this.cache.get(this.graph, node, target);
+            this.paths[i] = path;
+            this.pathFrom[i] = node;
+            this.pathTo[i] = target;
+            this.runUp[i] = RUN;
+            this.jumpEdge[i] = -1;
+        }
+
+        if(path.length == 0) {
+            this.actors.setInput(i, (byte)0); // Unreachable.
+            return;
+        }
+
+        int edge = path[0];
+        int direction = this.graph.getDirection(edge);
+        if(this.graph.getType(edge) != NavGraph.JUMP) {
+            this.actors.setInput(i, direction < 0 ? ActorStore.LEFT : ActorStore.RIGHT);
+            return;
+        }
+
+        // Run from the run-up point and jump on passing the takeoff point, as the jump was probed.
+        byte forward = direction < 0 ? ActorStore.LEFT : ActorStore.RIGHT;
+        byte back = direction < 0 ? ActorStore.RIGHT : ActorStore.LEFT;
+        double ahead = (this.graph.getFromX(edge) - cx) * direction;
+
+        if(this.runUp[i] == RUN && ahead <= -this.movement.xSpeed) {
+            this.runUp[i] = BACK; // Overshot, or arrived past it.
+        }
+        if(this.runUp[i] == BACK && (cx - this.graph.getRunUpX(edge)) * direction <= this.movement.xSpeed) {
+            this.runUp[i] = STOP;
+        }
+        if(this.runUp[i] == STOP && speed < .01) {
+            this.runUp[i] = RUN;
+        }
+
+        if(this.runUp[i] == BACK) {
+            this.actors.setInput(i, back);
+        } else if(this.runUp[i] == STOP) {
+            this.actors.setInput(i, (byte)0);
+        } else if(ahead <= 0) {
+            this.actors.setInput(i, (byte)(forward | ActorStore.JUMP));
+            if(this.jumpEdge[i] == edge && this.ticks - this.jumpTick[i] > RETRY) {
+                this.fail(edge); // Still here for another go.
+            }
+            this.jumpEdge[i] = edge;
+            this.jumpTick[i] = this.ticks;
+        } else {
+            this.actors.setInput(i, forward);
+        }
+    }
+
+    private void fail(int edge) {
+        if(this.graph.isBlocked(edge)) {
+            return;
+        }
+
+        this.failTicks[edge * FAILURES + this.failures[edge]] = this.ticks;
+        if(++this.failures[edge] < FAILURES) {
+            return;
+        }
+
+        this.graph.block(edge);
+        this.blocked++;
+        this.cache.clear();
+        Arrays.fill(this.paths, null);
+    }
+
+    /**
+     * Input that moves from x toward the target, or none within the given distance of it.
+     */
+    private static byte towards(double x, double target, double within) {
+        if(target - x > within) {
+            return ActorStore.RIGHT;
+        } else if(x - target > within) {
+            return ActorStore.LEFT;
+        }
+
+        return 0;
+    }
+
+    private void ensureCapacity(int actors) {
+        if(actors <= this.targetNode.length) {
+            return;
+        }
+
+        int length = Math.max(actors, this.targetNode.length * 2);
+        int old = this.targetNode.length;
+        this.targetNode = Arrays.copyOf(this.targetNode, length);
+        this.targetX = Arrays.copyOf(this.targetX, length);
+        this.paths = Arrays.copyOf(this.paths, length);
+        this.pathFrom = Arrays.copyOf(this.pathFrom, length);
+        this.pathTo = Arrays.copyOf(this.pathTo, length);
+        this.runUp = Arrays.copyOf(this.runUp, length);
+        this.lastX = Arrays.copyOf(this.lastX, length);
+        this.jumpEdge = Arrays.copyOf(this.jumpEdge, length);
+        this.jumpTick = Arrays.copyOf(this.jumpTick, length);
+        Arrays.fill(this.targetNode, old, length, -1);
+    }
+
+    /**
+     * Bytes written by save() for the given number of actors.
+     */
+    public static int stateSize(int actors) {
+        return 4 + 4 + 4 + actors * (4 + 8 + 4 + 4 + 1 + 1 + 8 + 4 + 4);
+    }
+
+    /**
+     * Write the steering state: each actor's target, path, run-up and last jump, and the tick count the
+     * edge failures are kept by. The paths are written as the surfaces they go between, as they are the
+     * cached paths for those surfaces.
+     */
+    public void save(ByteBuffer out) {
+        int count = this.actors.size();
+        this.ensureCapacity(count);
+
+        out.putInt(this.ticks);
+        out.putInt(this.followNode);
+        out.putInt(count);
+        for(int i = 0; i < count; i++) {
+            out.putInt(this.targetNode[i]);
+            out.putDouble(this.targetX[i]);
+            out.putInt(this.pathFrom[i]);
+            out.putInt(this.pathTo[i]);
+            out.put((byte)(this.paths[i] != null ? 1 : 0));
+            out.put(this.runUp[i]);
+            out.putDouble(this.lastX[i]);
+            out.putInt(this.jumpEdge[i]);
+            out.putInt(this.jumpTick[i]);
+        }
+    }
+
+    /**
+     * Read the state written by save() by this navigator, with the same graph. Edge failures after the
+     * saved tick are taken back, unblocking their edges, so steering continues as it did from that tick.
+     */
+    public void restore(ByteBuffer in) {
+        this.ticks = in.getInt();
+        this.followNode = in.getInt();
+
+        // Take back the failures since.
+        boolean changed = false;
+        for(int e = 0; e < this.failures.length; e++) {
+            int failures = this.failures[e];
+            while(failures > 0 && this.failTicks[e * FAILURES + failures - 1] >= this.ticks) {
+                failures--;
+            }
+
+            if(failures != this.failures[e]) {
+                this.failures[e] = (byte)failures;
+                if(this.graph.isBlocked(e) && failures < FAILURES) {
+                    this.graph.unblock(e);
+                    this.blocked--;
+                    changed = true;
+                }
+            }
+        }
+        if(changed) {
+            this.cache.clear();
+        }
+
+        int count = in.getInt();
+        if(count != this.actors.size()) {
+            throw new IllegalStateException("Saved state has " + count + " actors, the store has " + this.actors.size() + ".");
+        }
+
+        this.ensureCapacity(count);
+        for(int i = 0; i < count; i++) {
+            this.targetNode[i] = in.getInt();
+            this.targetX[i] = in.getDouble();
+            this.pathFrom[i] = in.getInt();
+            this.pathTo[i] = in.getInt();
+            boolean path = in.get() != 0;
+            this.runUp[i] = in.get();
+            this.lastX[i] = in.getDouble();
+            this.jumpEdge[i] = in.getInt();
+            this.jumpTick[i] = in.getInt();
+
+            this.paths[i] = path ? this.cache.get(this.graph, this.pathFrom[i], this.pathTo[i]) : null;
+        }
+    }
+
+    public NavGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * Graph size and path cache use so far, for logging.
+     */
+    public String report() {
+        long lookups = this.cache.getHits() + this.cache.getSearches();
+        return String.format("%d surfaces, %d edges (%d blocked), %d paths cached, %d lookups, %d searches (%.1f%% hits)",
+            this.graph.getSurfaceCount(), this.graph.getEdgeCount(), this.blocked, this.cache.size(), lookups, this.cache.getSearches(),
+            lookups > 0 ? 100.0 * this.cache.getHits() / lookups : 0);
+    }
+}
@@ -0,0 +1,171 @@
+package game.nav;
+
+import java.util.Arrays;
+
+/**
+ * Least recently used cache of paths, keyed by the surfaces they go from and to, shared by every actor
+ * steered through one graph. Actors heading for the same target from the same surface share one search,
+ * so searches grow with the number of distinct (surface, target) pairs in use rather than with actors.
+ *
+ * The pairs are packed into long keys in an open addressing table (linear probing) of entry indexes,
+ * and the entries are kept in a least recently used order by a list linked through index arrays. All
+ * of it is allocated up front for the capacity, so a lookup allocates nothing: only a search does, for
+ * the path it finds.
+ */
+public class PathCache {
+    private static final int[] NONE = new int[0]; // Cached for pairs with no path.
+
+    private final int capacity;
+
+    // Table of entry index + 1 by slot, 0 for an empty slot. At most half full.
+    private final int[] table;
+    private final int mask;
+
+    // Entries.
+    private final long[] keys;
+    private final int[][] paths;
+    private final int[] older, newer; // Least recently used order, -1 at the ends.
+    private int newest = -1, oldest = -1;
+    private int size = 0;
+
+    private long hits = 0;
+    private long searches = 0;
+
+    public PathCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        this.table = new int[slots];
+        this.mask = slots - 1;
+        this.keys = new long[this.capacity];
+        this.paths = new int[this.capacity][];
+        this.older = new int[this.capacity];
+        this.newer = new int[this.capacity];
+    }
+
+    /**
+     * The edges from one surface to another (see NavGraph.path()), searching the graph if the pair isn't cached.
+     *
+     * @return The edges, or none if there is no path. Shared, so not to be modified.
+     */
+    public int[] get(NavGraph graph, int from, int to) {
+        long key = ((long)from << 32) | (to & 0xffffffffL);
+
+        int slot = this.find(key);
+        if(this.table[slot] != 0) {
+            int e = this.table[slot] - 1;
+            this.unlink(e);
+            this.link(e);
+            this.hits++;
+            return this.paths[e];
+        }
+
+        int[] path = graph.path(from, to);
+        if(path == null) {
+            path = NONE;
+        }
+        this.searches++;
+
+        // Take a free entry, or the least recently used one.
+        int e;
+        if(this.size < this.capacity) {
+            e = this.size++;
+        } else {
+            e = this.oldest;
+            this.unlink(e);
+            this.remove(this.find(this.keys[e]));
+            slot = this.find(key); // The removal may have moved the key's slot.
+        }
+
+        this.keys[e] = key;
+        this.paths[e] = path;
+        this.table[slot] = e + 1;
+        this.link(e);
+
+        return path;
+    }
+
+    /**
+     * Slot holding the key, or the empty slot where it would go.
+     */
+    private int find(long key) {
+        int slot = hash(key) & this.mask;
+        while(this.table[slot] != 0 && this.keys[this.table[slot] - 1] != key) {
+            slot = (slot + 1) & this.mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Empty a slot, moving later entries of its probe run back so none is left behind a gap.
+     */
+    private void remove(int slot) {
+        int gap = slot;
+        int next = (slot + 1) & this.mask;
+        while(this.table[next] != 0) {
+            int home = hash(this.keys[this.table[next] - 1]) & this.mask;
+
+            // Move the entry into the gap unless its home is cyclically within (gap, next].
+            if(((next - home) & this.mask) >= ((next - gap) & this.mask)) {
+                this.table[gap] = this.table[next];
+                gap = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+
+        this.table[gap] = 0;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int)(key ^ (key >>> 32));
+    }
+
+    /**
+     * Make the entry the most recently used.
+     */
+    private void link(int e) {
+        this.older[e] = this.newest;
+        this.newer[e] = -1;
+        if(this.newest >= 0) {
+            this.newer[this.newest] = e;
+        } else {
+            this.oldest = e;
+        }
+        this.newest = e;
+    }
+
+    private void unlink(int e) {
+        if(this.older[e] >= 0) {
+            this.newer[this.older[e]] = this.newer[e];
+        } else {
+            this.oldest = this.newer[e];
+        }
+
+        if(this.newer[e] >= 0) {
+            this.older[this.newer[e]] = this.older[e];
+        } else {
+            this.newest = this.older[e];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(this.table, 0);
+        Arrays.fill(this.paths, null);
+        this.newest = -1;
+        this.oldest = -1;
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getSearches() {
+        return this.searches;
+    }
+}
@@ -0,0 +1,114 @@
+package game.net;
+
+import game.Game;
+import game.actor.ActorStore;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+
+/**
+ * Runs a SimServer and many clients over loopback, to measure bandwidth and tick cost per client.
+ *
+ * Usage: LoadTest [clients N] [seconds S] [port P]
+ *
+ * The server runs on its own thread as it would standalone, with the -Dsim.actors store actors (and its
+ * usual once a second report). N clients (default 32) are served from this thread through one Selector.
+ * Each walks one way and then the other, jumps now and then, and answers every state with its controls,
+ * so the server sees realistic acknowledgements. After S seconds (default 10) the server's totals and
+ * the clients' are reported. Exits with status 1 if any client's state didn't match the server's.
+ */
+public class LoadTest {
+    private static final int TURN_STATES = 120; // States between changes of direction.
+    private static final int JUMP_STATES = 45; // States between jumps.
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        int clients = 32;
+        double seconds = 10;
+        int port = 0;
+        for(int a = 0; a < args.length; a++) {
+            if(args[a].equals("clients")) {
+                clients = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("seconds")) {
+                seconds = Double.parseDouble(args[++a]);
+            } else if(args[a].equals("port")) {
+                port = Integer.parseInt(args[++a]);
+            }
+        }
+
+        final SimServer server = SimServer.start(port, Game.ACTOR_COUNT, clients);
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch(IOException e) {
+                    Game.log("Server failed: " + e.getMessage());
+                }
+            }
+        }, "server");
+        serverThread.start();
+
+        Selector selector = Selector.open();
+        SimClient[] simClients = new SimClient[clients];
+        for(int a = 0; a < clients; a++) {
+            simClients[a] = SimClient.connect("localhost", server.getPort());
+            simClients[a].channel.register(selector, SelectionKey.OP_READ, simClients[a]);
+        }
+
+        Game.log("Running " + clients + " clients for " + seconds + " s.");
+
+        long start = System.nanoTime();
+        long stop = start + (long)(seconds * 1e9);
+        while(System.nanoTime() - stop < 0) {
+            selector.select(100);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SimClient client = (SimClient)keys.next().attachment();
+                keys.remove();
+
+                if(client.read()) {
+                    client.send(controls(client));
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        server.stop();
+        serverThread.join();
+        for(SimClient client : simClients) {
+            client.close();
+        }
+        selector.close();
+
+        long states = 0, fullStates = 0, bytes = 0, mismatches = 0;
+        for(SimClient client : simClients) {
+            states += client.states;
+            fullStates += client.fullStates;
+            bytes += client.bytesReceived;
+            mismatches += client.mismatches;
+        }
+
+        Game.log("Server: " + server.getTotals().report(new SimServer.Totals(), elapsed));
+        Game.log(String.format("Clients: %d states received (%d full), %.1f KB/s and %.0f bytes per state per client, %d mismatches",
+            states, fullStates, bytes / 1024.0 / elapsed / clients, states > 0 ? (double)bytes / states : 0, mismatches));
+
+        System.exit(mismatches > 0 ? 1 : 0);
+    }
+
+    /**
+     * Controls for a client's next input, from the number of states it has received.
+     */
+    private static byte controls(SimClient client) {
+        long n = client.states + client.avatar * 7; // Out of step with each other.
+        byte controls = (n / TURN_STATES) % 2 == 0 ? ActorStore.RIGHT : ActorStore.LEFT;
+        if(n % JUMP_STATES == 0) {
+            controls |= ActorStore.JUMP;
+        }
+
+        return controls;
+    }
+}
@@ -0,0 +1,289 @@
+package game.net;
+
+import game.util.Varint;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Wire format shared by SimServer and SimClient.
+ *
+ * Every message is an int length followed by that many bytes, the first of which is the message type.
+ * Numbers are varints (see Varint), zigzag encoded where they can be negative, unless noted.
+ *
+ * Server to client:
+ *   HELLO  view width, view height, actor slots, actor width, actor height, the client's avatar slot
+ *   STATE  tick, base tick + 1 (0 for a full state), camera x, camera y, entries, END, int state hash
+ *
+ * Client to server:
+ *   INPUT  byte controls (ActorStore input bits), tick of the last state received + 1 (0 for none)
+ *
+ * A state lists the actors in a client's area of interest, with positions quantized to 1/SCALE pixel,
+ * delta encoded against the last state the client acknowledged. Each entry is a varint of the slot gap
+ * from the previous entry shifted left by two, or'ed with the kind. MOVED is followed by the change in x
+ * and y, ADDED by x and y, and REMOVED by nothing. Actors that haven't moved aren't listed. The hash
+ * covers the whole resulting state, so a client that gets out of step notices, and asks for a full state
+ * by acknowledging nothing.
+ */
+public class Protocol {
+    public static final int DEFAULT_PORT = 7777;
+
+    // Message types.
+    public static final int HELLO = 1;
+    public static final int STATE = 2;
+    public static final int INPUT = 3;
+
+    // State entry kinds.
+    public static final int MOVED = 0;
+    public static final int ADDED = 1;
+    public static final int REMOVED = 2;
+    public static final int END = 3;
+
+    public static final double SCALE = 16; // Position steps per pixel.
+    public static final int HISTORY = 32; // States kept by each side, so acknowledgements up to this many ticks old can be used as a base.
+    public static final int MAX_MESSAGE = 1 << 24;
+    public static final int MAX_ENTRY = 21; // Bytes: three varints of up to seven bytes.
+
+    public static int quantize(double v) {
+        return (int)Math.round(v * SCALE);
+    }
+
+    public static double dequantize(int q) {
+        return q / SCALE;
+    }
+
+    /**
+     * Quantized positions of a set of actors, sorted by slot.
+     */
+    public static class State {
+        public long tick = -1;
+        public int count = 0;
+        public int[] slots = new int[64];
+        public int[] xs = new int[64];
+        public int[] ys = new int[64];
+
+        public void clear(long tick) {
+            this.tick = tick;
+            this.count = 0;
+        }
+
+        /**
+         * Add an actor. Slots must be added in increasing order, or sorted with sort() afterwards.
+         */
+        public void add(int slot, int x, int y) {
+            if(this.count == this.slots.length) {
+                this.slots = Arrays.copyOf(this.slots, this.count * 2);
+                this.xs = Arrays.copyOf(this.xs, this.count * 2);
+                this.ys = Arrays.copyOf(this.ys, this.count * 2);
+            }
+
+            this.slots[this.count] = slot;
+            this.xs[this.count] = x;
+            this.ys[this.count] = y;
+            this.count++;
+        }
+
+        /**
+         * Sort by slot. Only the slots are sorted, so call it before setting positions.
+         */
+        public void sortSlots() {
+            Arrays.sort(this.slots, 0, this.count);
+        }
+
+        public int hash() {
+            int h = 0x811C9DC5;
+            for(int a = 0; a < this.count; a++) {
+                h = (h ^ this.slots[a]) * 0x01000193;
+                h = (h ^ this.xs[a]) * 0x01000193;
+                h = (h ^ this.ys[a]) * 0x01000193;
+            }
+
+            return h;
+        }
+    }
+
+    /**
+     * The last HISTORY states, by tick.
+     */
+    public static class History {
+        private final State[] states = new State[HISTORY];
+
+        public History() {
+            for(int a = 0; a < HISTORY; a++) {
+                this.states[a] = new State();
+            }
+        }
+
+        /**
+         * Get the state for the tick, or null if it isn't held.
+         */
+        public State get(long tick) {
+            if(tick < 0) {
+                return null;
+            }
+
+            State s = this.states[(int)(tick % HISTORY)];
+            return s.tick == tick ? s : null;
+        }
+
+        /**
+         * Get an empty state for the tick, in place of the state HISTORY ticks before it.
+         */
+        public State next(long tick) {
+            State s = this.states[(int)(tick % HISTORY)];
+            s.clear(tick);
+
+            return s;
+        }
+    }
+
+    /**
+     * Bytes needed to encode a state against a base, at most.
+     */
+    public static int maxEncodedSize(State base, State state) {
+        return (base != null ? base.count : 0) * MAX_ENTRY + state.count * MAX_ENTRY + 8;
+    }
+
+    /**
+     * Write the entries that turn base (null for none) into state, and the END entry.
+     */
+    public static void encode(State base, State state, ByteBuffer out) {
+        int b = 0, s = 0;
+        int baseCount = base != null ? base.count : 0;
+        int prev = 0;
+
+        // Merge the two sorted slot lists.
+        while(b < baseCount || s < state.count) {
+            int baseSlot = b < baseCount ? base.slots[b] : Integer.MAX_VALUE;
+            int slot = s < state.count ? state.slots[s] : Integer.MAX_VALUE;
+
+            if(baseSlot == slot) {
+                int dx = state.xs[s] - base.xs[b];
+                int dy = state.ys[s] - base.ys[b];
+                if(dx != 0 || dy != 0) {
+                    Varint.put(out, (long)(slot - prev) << 2 | MOVED);
+                    Varint.put(out, Varint.zigzag(dx));
+                    Varint.put(out, Varint.zigzag(dy));
+                    prev = slot;
+                }
+
+                b++;
+                s++;
+            } else if(slot < baseSlot) {
+                Varint.put(out, (long)(slot - prev) << 2 | ADDED);
+                Varint.put(out, Varint.zigzag(state.xs[s]));
+                Varint.put(out, Varint.zigzag(state.ys[s]));
+                prev = slot;
+                s++;
+            } else {
+                Varint.put(out, (long)(baseSlot - prev) << 2 | REMOVED);
+                prev = baseSlot;
+                b++;
+            }
+        }
+
+        Varint.put(out, END);
+    }
+
+    /**
+     * Read entries written by encode() and apply them to base (null for none), giving the new state in out.
+     */
+    public static void decode(State base, ByteBuffer in, State out) throws IOException {
+        int b = 0;
+        int baseCount = base != null ? base.count : 0;
+        int slot = 0;
+
+        try {
+            while(true) {
+                long entry = Varint.get(in);
+                int kind = (int)(entry & 3);
+                if(kind == END) {
+                    break;
+                }
+
+                slot += (int)(entry >>> 2);
+
+                // Base actors before this slot are unchanged.
+                while(b < baseCount && base.slots[b] < slot) {
+                    out.add(base.slots[b], base.xs[b], base.ys[b]);
+                    b++;
+                }
+
+                if(kind == ADDED) {
+                    out.add(slot, (int)Varint.unzigzag(Varint.get(in)), (int)Varint.unzigzag(Varint.get(in)));
+                    continue;
+                }
+
+                if(b == baseCount || base.slots[b] != slot) {
+                    throw new IOException("State entry for slot " + slot + " has no base.");
+                }
+
+                if(kind == MOVED) {
+                    out.add(slot, base.xs[b] + (int)Varint.unzigzag(Varint.get(in)), base.ys[b] + (int)Varint.unzigzag(Varint.get(in)));
+                }
+
+                b++;
+            }
+        } catch(BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed state.", e);
+        }
+
+        while(b < baseCount) {
+            out.add(base.slots[b], base.xs[b], base.ys[b]);
+            b++;
+        }
+    }
+
+    /**
+     * Start a message of the given type. Finish it with end().
+     */
+    public static void begin(ByteBuffer out, int type) {
+        out.putInt(0);
+        out.put((byte)type);
+    }
+
+    /**
+     * Fill in the length of the message started at the given position.
+     */
+    public static void end(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    /**
+     * If the buffer, ready for reading, holds a whole message, return its length and leave the position
+     * at its type byte. Otherwise return -1 and leave the position alone.
+     */
+    public static int next(ByteBuffer in) throws IOException {
+        if(in.remaining() < 4) {
+            return -1;
+        }
+
+        int length = in.getInt(in.position());
+        if(length < 1 || length > MAX_MESSAGE) {
+            throw new IOException("Bad message length " + length + ".");
+        }
+
+        if(in.remaining() < 4 + length) {
+            return -1;
+        }
+
+        in.position(in.position() + 4);
+        return length;
+    }
+
+    /**
+     * Make room for more bytes in a buffer that is being filled, keeping its contents.
+     */
+    public static ByteBuffer ensure(ByteBuffer buffer, int more) {
+        if(buffer.remaining() >= more) {
+            return buffer;
+        }
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + more));
+        buffer.flip();
+        bigger.put(buffer);
+
+        return bigger;
+    }
+}
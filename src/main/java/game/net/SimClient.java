@@ -0,0 +1,258 @@
+package game.net;
+
+import game.Game;
+import game.Window;
+import game.actor.ActorStore;
+import game.actor.Movement;
+import game.util.Varint;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Client of SimServer: sends controls, and receives the states of the actors around its avatar.
+ *
+ * Usage: SimClient [host] [port]
+ *
+ * Opens a window and draws what the server streams through the usual Camera and Window. The client
+ * doesn't simulate anything. The world's walls and background are generated locally from the view size
+ * in the server's HELLO, so run the client with the same -Dsim.level as the server, if any, and without
+ * -Dsim.renderThread.
+ *
+ * The connection itself doesn't need a window, and LoadTest drives many of them at once.
+ */
+public class SimClient {
+    public final SocketChannel channel;
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16); // Ready for reading into.
+    private final ByteBuffer out = ByteBuffer.allocate(64); // Ready for writing out.
+
+    private final Protocol.History history = new Protocol.History(); // States received.
+    private Protocol.State state; // Latest state.
+    private final Protocol.State shown = new Protocol.State(); // State last applied to a store.
+    private long ack = -1; // Tick of the latest state, or -1 to ask for a full state.
+
+    // From the server's HELLO. The view width is -1 until it has arrived.
+    public int viewWidth = -1, viewHeight, slots, actorWidth, actorHeight, avatar;
+
+    // From the latest state.
+    public int cameraX, cameraY;
+
+    // Totals.
+    public long bytesReceived, states, fullStates, mismatches;
+
+    /**
+     * Use a connected channel. It is made non-blocking.
+     */
+    public SimClient(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(false);
+        this.channel.socket().setTcpNoDelay(true);
+        this.out.flip();
+    }
+
+    public static SimClient connect(String host, int port) throws IOException {
+        return new SimClient(SocketChannel.open(new InetSocketAddress(host, port)));
+    }
+
+    /**
+     * Read whatever has arrived and process every whole message, without waiting.
+     *
+     * @return True if a new state was received.
+     */
+    public boolean read() throws IOException {
+        boolean updated = false;
+
+        int n;
+        while((n = this.channel.read(this.in)) > 0) {
+            this.bytesReceived += n;
+
+            this.in.flip();
+            int length;
+            while((length = Protocol.next(this.in)) >= 0) {
+                int end = this.in.position() + length;
+
+                try {
+                    int type = this.in.get();
+                    if(type == Protocol.HELLO) {
+                        this.hello();
+                    } else if(type == Protocol.STATE) {
+                        updated |= this.state();
+                    }
+                } catch(BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Malformed message.", e);
+                }
+
+                this.in.position(end);
+            }
+            this.in.compact();
+
+            if(!this.in.hasRemaining()) {
+                // A message larger than the buffer.
+                this.in = Protocol.ensure(this.in, this.in.capacity());
+            }
+        }
+
+        if(n < 0) {
+            throw new EOFException("Server closed the connection.");
+        }
+
+        return updated;
+    }
+
+    private void hello() {
+        this.viewWidth = (int)Varint.get(this.in);
+        this.viewHeight = (int)Varint.get(this.in);
+        this.slots = (int)Varint.get(this.in);
+        this.actorWidth = (int)Varint.get(this.in);
+        this.actorHeight = (int)Varint.get(this.in);
+        this.avatar = (int)Varint.get(this.in);
+    }
+
+    private boolean state() throws IOException {
+        long tick = Varint.get(this.in);
+        long baseTick = Varint.get(this.in) - 1;
+        int cameraX = (int)Varint.unzigzag(Varint.get(this.in));
+        int cameraY = (int)Varint.unzigzag(Varint.get(this.in));
+
+        Protocol.State base = null;
+        if(baseTick >= 0) {
+            base = this.history.get(baseTick);
+            if(base == null) {
+                // Too old, or dropped after a mismatch. Ask for a full state.
+                this.ack = -1;
+                return false;
+            }
+        }
+
+        Protocol.State s = this.history.next(tick);
+        Protocol.decode(base, this.in, s);
+
+        if(this.in.getInt() != s.hash()) {
+            this.mismatches++;
+            s.clear(-1);
+            this.ack = -1;
+            return false;
+        }
+
+        this.state = s;
+        this.ack = tick;
+        this.cameraX = cameraX;
+        this.cameraY = cameraY;
+        this.states++;
+        if(base == null) {
+            this.fullStates++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Send controls, acknowledging the latest state.
+     *
+     * @return False if the last controls haven't been sent yet, in which case these are dropped.
+     */
+    public boolean send(byte controls) throws IOException {
+        if(this.out.hasRemaining()) {
+            this.channel.write(this.out);
+            if(this.out.hasRemaining()) {
+                return false;
+            }
+        }
+
+        this.out.clear();
+        Protocol.begin(this.out, Protocol.INPUT);
+        this.out.put(controls);
+        Varint.put(this.out, this.ack + 1);
+        Protocol.end(this.out, 0);
+        this.out.flip();
+        this.channel.write(this.out);
+
+        return true;
+    }
+
+    /**
+     * Latest state received, or null.
+     */
+    public Protocol.State getState() {
+        return this.state;
+    }
+
+    /**
+     * Move the store's actors to the latest state. Actors that were in the last state applied but aren't
+     * in this one are moved to NaN, which fails every bounds test, so they aren't drawn.
+     */
+    public void apply(ActorStore actors) {
+        if(this.state == null) {
+            return;
+        }
+
+        for(int a = 0; a < this.shown.count; a++) {
+            actors.setPosition(this.shown.slots[a], Double.NaN, Double.NaN);
+        }
+
+        this.shown.clear(this.state.tick);
+        for(int a = 0; a < this.state.count; a++) {
+            int slot = this.state.slots[a];
+            actors.setPosition(slot, Protocol.dequantize(this.state.xs[a]), Protocol.dequantize(this.state.ys[a]));
+            this.shown.add(slot, this.state.xs[a], this.state.ys[a]);
+        }
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Protocol.DEFAULT_PORT;
+
+        SimClient client = SimClient.connect(host, port);
+        while(client.viewWidth < 0) {
+            client.read();
+            LockSupport.parkNanos(1000000);
+        }
+
+        Game.log("Connected to " + host + ":" + port + ", avatar " + client.avatar + ".");
+
+        // The world as the server created it, with a store of hidden actors to take the streamed positions.
+        Game.WINDOW = new Window("sim client", client.viewWidth, client.viewHeight);
+        Game.create(client.viewWidth, client.viewHeight, 0);
+
+        ActorStore actors = new ActorStore(client.slots, Movement.DEFAULT);
+        for(int a = 0; a < client.slots; a++) {
+            actors.add(Double.NaN, Double.NaN, client.actorWidth, client.actorHeight);
+        }
+        Game.ACTORS = actors;
+
+        long next = System.nanoTime();
+        while(Game.RUN) {
+            if(client.read()) {
+                client.apply(actors);
+
+                // The avatar is drawn as the player, over its store actor, and the camera is where the server has it.
+                Game.PLAYER.x = actors.getX(client.avatar);
+                Game.PLAYER.y = actors.getY(client.avatar);
+                Game.CAMERA.x = client.cameraX;
+                Game.CAMERA.y = client.cameraY;
+            }
+
+            Game.INPUT.drain(Game.PLAYER, System.nanoTime());
+            client.send(Game.PLAYER.latchInput());
+            Game.WINDOW.draw();
+
+            next += (long)(Game.TICK * 1e6);
+            long now = System.nanoTime();
+            if(next - now > 0) {
+                Game.SCHEDULER.waitUntil(next);
+            } else {
+                next = now;
+            }
+        }
+
+        client.close();
+    }
+}
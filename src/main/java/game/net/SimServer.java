@@ -0,0 +1,489 @@
+package game.net;
+
+import game.Game;
+import game.Headless;
+import game.actor.ActorGrid;
+import game.actor.ActorStore;
+import game.camera.Camera;
+import game.util.Varint;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Authoritative simulation server. Runs Game.logic() at the game's tick rate without a display, takes
+ * controls from clients, and streams each client the actors around it every tick.
+ *
+ * Usage: SimServer [port P] [clients N]
+ *
+ * The world is created as usual, with room for N client avatars after the -Dsim.actors store actors.
+ * Each connected client drives one avatar with INPUT messages and has its own Camera following it. After
+ * each tick a client is sent the actors that intersect its camera rectangle plus a margin, found through
+ * the store's ActorGrid and delta encoded against the last state it acknowledged (see Protocol).
+ *
+ * Sockets are non-blocking and are served from the tick thread through one Selector, between ticks. A
+ * client whose socket hasn't taken all of its last update skips ticks until it has, and its next update
+ * is encoded against whatever it has acknowledged by then.
+ *
+ * The chunked world only loads chunks around the server's own player, so it isn't supported. Nor is AI:
+ * the Navigator sets the input of every store actor, which would take the avatars from their clients.
+ */
+public class SimServer {
+    private static final int AOI_MARGIN = 32; // Pixels around a client's camera that are streamed too, so actors don't pop in at the edges.
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final int firstAvatar;
+    private final Connection[] avatars; // Connection driving each avatar, or null.
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final Totals totals = new Totals();
+    private volatile boolean running = true;
+
+    // Collects the slots found by a client's area of interest query.
+    private Protocol.State collecting;
+    private final ActorGrid.Visitor collect = new ActorGrid.Visitor() {
+        @Override
+        public void visit(int slot) {
+            SimServer.this.collecting.add(slot, 0, 0);
+        }
+    };
+
+    /**
+     * A connected client.
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final int slot; // Avatar.
+        final Camera camera = new Camera(0, 0, Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT);
+        final Protocol.History history = new Protocol.History(); // States sent.
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        ByteBuffer out = ByteBuffer.allocate(4096); // Ready for writing out. Empty when the last message has been sent.
+        long ack = -1; // Last state tick the client has received.
+
+        Connection(SocketChannel channel, SelectionKey key, int slot) {
+            this.channel = channel;
+            this.key = key;
+            this.slot = slot;
+            this.camera.setWorld(Game.WORLD);
+            this.out.flip();
+        }
+    }
+
+    /**
+     * Running totals. Take a copy() to measure an interval.
+     */
+    public static class Totals {
+        public long ticks; // Ticks run.
+        public long dropped; // Ticks skipped to catch up, see Game.MAX_CATCH_UP.
+        public long tickNanos; // Time spent in ticks, including input, logic and sending.
+        public long sendNanos; // Time spent finding, encoding and writing states.
+        public long clientTicks; // Sum over ticks of the number of clients connected.
+        public long states; // States sent.
+        public long fullStates; // States sent without a base.
+        public long skipped; // States not sent because the client's socket was still busy.
+        public long entries; // Actors in the states sent.
+        public long bytes; // Bytes written.
+
+        public Totals copy() {
+            Totals t = new Totals();
+            t.ticks = this.ticks;
+            t.dropped = this.dropped;
+            t.tickNanos = this.tickNanos;
+            t.sendNanos = this.sendNanos;
+            t.clientTicks = this.clientTicks;
+            t.states = this.states;
+            t.fullStates = this.fullStates;
+            t.skipped = this.skipped;
+            t.entries = this.entries;
+            t.bytes = this.bytes;
+
+            return t;
+        }
+
+        /**
+         * Summarize the change since the earlier totals, which took the given number of seconds.
+         */
+        public String report(Totals since, double seconds) {
+            long ticks = this.ticks - since.ticks;
+            long clientTicks = this.clientTicks - since.clientTicks;
+            long states = this.states - since.states;
+            double clients = ticks > 0 ? (double)clientTicks / ticks : 0;
+
+            return String.format("ticks/s: %.1f, dropped: %d, clients: %.1f, tick: %.3f ms, send: %.1f us per client, out: %.1f KB/s per client, actors per state: %.1f, full states: %d, skipped: %d",
+                ticks / seconds, this.dropped - since.dropped, clients,
+                ticks > 0 ? (this.tickNanos - since.tickNanos) / 1e6 / ticks : 0,
+                clientTicks > 0 ? (this.sendNanos - since.sendNanos) / 1e3 / clientTicks : 0,
+                clients > 0 ? (this.bytes - since.bytes) / 1024.0 / seconds / clients : 0,
+                states > 0 ? (double)(this.entries - since.entries) / states : 0,
+                this.fullStates - since.fullStates, this.skipped - since.skipped);
+        }
+    }
+
+    /**
+     * Create the world with room for the clients' avatars, and listen on the port (0 for any free port).
+     */
+    public static SimServer start(int port, int actors, int maxClients) throws IOException {
+        if(Game.CHUNKED) {
+            throw new IllegalStateException("The server doesn't support the chunked world.");
+        }
+        if(Game.AI) {
+            throw new IllegalStateException("The server doesn't support AI: it would steer the clients' avatars.");
+        }
+
+        Game.create(Headless.VIEW_WIDTH, Headless.VIEW_HEIGHT, actors + maxClients);
+
+        return new SimServer(port, actors, maxClients);
+    }
+
+    private SimServer(int port, int firstAvatar, int maxClients) throws IOException {
+        this.firstAvatar = firstAvatar;
+        this.avatars = new Connection[maxClients];
+
+        // Avatars stand still until someone drives them.
+        for(int a = 0; a < maxClients; a++) {
+            Game.ACTORS.setInput(firstAvatar + a, (byte)0);
+        }
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port));
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return this.server.socket().getLocalPort();
+    }
+
+    public Totals getTotals() {
+        return this.totals;
+    }
+
+    /**
+     * Run ticks at Game.TICK intervals until stop() is called, logging the totals every second.
+     */
+    public void run() throws IOException {
+        long next = System.nanoTime();
+        long reportStart = next;
+        Totals reported = this.totals.copy();
+
+        try {
+            while(this.running) {
+                long tick = (long)(Game.TICK * 1e6);
+                this.tick();
+
+                next += tick;
+                long now = System.nanoTime();
+                if(Game.MAX_CATCH_UP > 0 && now - next > Game.MAX_CATCH_UP * tick) {
+                    // Too far behind. Drop the backlog, as Game.loop() does.
+                    long dropped = (now - next) / tick;
+                    next += dropped * tick;
+                    this.totals.dropped += dropped;
+                }
+
+                if(now - reportStart >= 1000000000L) {
+                    Game.log(this.totals.report(reported, (now - reportStart) / 1e9));
+                    reported = this.totals.copy();
+                    reportStart = now;
+                }
+
+                if(next - now > 0) {
+                    Game.SCHEDULER.waitUntil(next);
+                }
+            }
+        } finally {
+            for(Connection c : new ArrayList<Connection>(this.connections)) {
+                this.close(c, null);
+            }
+
+            this.server.close();
+            this.selector.close();
+        }
+    }
+
+    /**
+     * Make run() return after the current tick.
+     */
+    public void stop() {
+        this.running = false;
+    }
+
+    /**
+     * Take input, step the world and send the clients their states.
+     */
+    public void tick() throws IOException {
+        long start = System.nanoTime();
+
+        this.poll();
+
+        Game.logic();
+
+        long send = System.nanoTime();
+        for(int a = 0; a < this.connections.size(); a++) {
+            Connection c = this.connections.get(a);
+            try {
+                this.send(c);
+            } catch(IOException e) {
+                this.close(c, e);
+                a--;
+            }
+        }
+
+        long end = System.nanoTime();
+        this.totals.ticks++;
+        this.totals.clientTicks += this.connections.size();
+        this.totals.sendNanos += end - send;
+        this.totals.tickNanos += end - start;
+    }
+
+    /**
+     * Accept new clients, read input and finish pending writes, without waiting.
+     */
+    private void poll() throws IOException {
+        this.selector.selectNow();
+
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while(keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if(!key.isValid()) {
+                continue;
+            }
+
+            if(key.isAcceptable()) {
+                this.accept();
+                continue;
+            }
+
+            Connection c = (Connection)key.attachment();
+            try {
+                if(key.isReadable()) {
+                    this.read(c);
+                }
+
+                if(key.isValid() && key.isWritable()) {
+                    this.flush(c);
+                }
+            } catch(IOException e) {
+                this.close(c, e);
+            }
+        }
+    }
+
+    /**
+     * Accept a waiting client and say hello. A client that fails on the way in, e.g. by resetting the
+     * connection straight away, is dropped on its own.
+     */
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = this.server.accept();
+        } catch(IOException e) {
+            Game.log("Can't accept a client: " + e.getMessage());
+            return;
+        }
+
+        if(channel == null) {
+            return;
+        }
+
+        Connection c = null;
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+
+            int free = 0;
+            while(free < this.avatars.length && this.avatars[free] != null) {
+                free++;
+            }
+
+            if(free == this.avatars.length) {
+                Game.log("Refused " + address + ": server is full.");
+                channel.close();
+                return;
+            }
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+
+            c = new Connection(channel, key, this.firstAvatar + free);
+            key.attach(c);
+            this.avatars[free] = c;
+            this.connections.add(c);
+
+            ActorStore actors = Game.ACTORS;
+            c.out.clear();
+            Protocol.begin(c.out, Protocol.HELLO);
+            Varint.put(c.out, Headless.VIEW_WIDTH);
+            Varint.put(c.out, Headless.VIEW_HEIGHT);
+            Varint.put(c.out, actors.size());
+            Varint.put(c.out, (long)actors.getW(c.slot));
+            Varint.put(c.out, (long)actors.getH(c.slot));
+            Varint.put(c.out, c.slot);
+            Protocol.end(c.out, 0);
+            c.out.flip();
+            this.flush(c);
+
+            Game.log("Client " + address + " connected, avatar " + c.slot + ".");
+        } catch(IOException e) {
+            if(c != null) {
+                this.close(c, e);
+                return;
+            }
+
+            try {
+                channel.close();
+            } catch(IOException ignored) {
+                // Closing anyway.
+            }
+            Game.log("Can't accept a client: " + e.getMessage());
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        if(c.channel.read(c.in) < 0) {
+            throw new EOFException("Client closed the connection.");
+        }
+
+        c.in.flip();
+        int length;
+        while((length = Protocol.next(c.in)) >= 0) {
+            int end = c.in.position() + length;
+
+            try {
+                if(c.in.get() == Protocol.INPUT) {
+                    this.input(c, c.in.get());
+                    c.ack = Varint.get(c.in) - 1;
+                }
+            } catch(BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Malformed message.", e);
+            }
+
+            c.in.position(end);
+        }
+        c.in.compact();
+
+        if(!c.in.hasRemaining()) {
+            throw new IOException("Client message too large.");
+        }
+    }
+
+    /**
+     * Apply a client's controls to its avatar. Jumps are kept until the avatar's next step.
+     */
+    private void input(Connection c, byte controls) {
+        ActorStore actors = Game.ACTORS;
+        byte held = (byte)(controls & (ActorStore.LEFT | ActorStore.RIGHT));
+
+        actors.setInput(c.slot, (byte)(held | (actors.getInput(c.slot) & ActorStore.JUMP)));
+        if((controls & ActorStore.JUMP) != 0) {
+            actors.jump(c.slot);
+        }
+    }
+
+    /**
+     * Send a client the actors around its avatar, unless it's still busy with the last ones.
+     */
+    private void send(Connection c) throws IOException {
+        if(c.out.hasRemaining()) {
+            this.totals.skipped++;
+            return;
+        }
+
+        ActorStore actors = Game.ACTORS;
+        Camera camera = c.camera;
+        camera.setTarget(actors.view(c.slot));
+        camera.logic();
+
+        // The base must be looked up before next() reuses the oldest state.
+        long tick = Game.TICKS;
+        Protocol.State base = tick - c.ack < Protocol.HISTORY ? c.history.get(c.ack) : null;
+        Protocol.State state = c.history.next(tick);
+
+        this.collecting = state;
+        actors.getGrid().query(camera.x - AOI_MARGIN, camera.y - AOI_MARGIN, camera.x + camera.width + AOI_MARGIN, camera.y + camera.height + AOI_MARGIN, this.collect);
+        this.collecting = null;
+
+        state.sortSlots();
+        for(int a = 0; a < state.count; a++) {
+            state.xs[a] = Protocol.quantize(actors.getX(state.slots[a]));
+            state.ys[a] = Protocol.quantize(actors.getY(state.slots[a]));
+        }
+
+        c.out.clear();
+        c.out = Protocol.ensure(c.out, Protocol.maxEncodedSize(base, state) + 64);
+        Protocol.begin(c.out, Protocol.STATE);
+        Varint.put(c.out, tick);
+        Varint.put(c.out, base != null ? base.tick + 1 : 0);
+        Varint.put(c.out, Varint.zigzag(camera.x));
+        Varint.put(c.out, Varint.zigzag(camera.y));
+        Protocol.encode(base, state, c.out);
+        c.out.putInt(state.hash());
+        Protocol.end(c.out, 0);
+        c.out.flip();
+
+        this.totals.states++;
+        this.totals.entries += state.count;
+        if(base == null) {
+            this.totals.fullStates++;
+        }
+
+        this.flush(c);
+    }
+
+    /**
+     * Write as much of the pending message as the socket takes, and watch for writability if that isn't all of it.
+     */
+    private void flush(Connection c) throws IOException {
+        this.totals.bytes += c.channel.write(c.out);
+
+        c.key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void close(Connection c, IOException cause) {
+        this.connections.remove(c);
+        this.avatars[c.slot - this.firstAvatar] = null;
+        Game.ACTORS.setInput(c.slot, (byte)0);
+
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch(IOException e) {
+            // Closing anyway.
+        }
+
+        if(cause != null) {
+            Game.log("Client with avatar " + c.slot + " disconnected: " + cause.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        int port = Protocol.DEFAULT_PORT;
+        int clients = 16;
+        for(int a = 0; a < args.length; a++) {
+            if(args[a].equals("port")) {
+                port = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("clients")) {
+                clients = Integer.parseInt(args[++a]);
+            }
+        }
+
+        SimServer server = SimServer.start(port, Game.ACTOR_COUNT, clients);
+        Game.log("Listening on port " + server.getPort() + " for up to " + clients + " clients.");
+        server.run();
+    }
+}
@@ -0,0 +1,113 @@
+package game.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory latency histogram for nanosecond durations.
+ *
+ * Buckets are log-linear: each power of two range is split into 64 equal buckets, so any
+ * recorded value is reported within 1.6% of its true value. Values from 0 up to about 18 minutes
+ * fit in 2.2k buckets. Recording is lock free and allocation free and may happen on any thread.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 7; // 128 sub-buckets in the first range, 64 in each after.
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int MAX_MAGNITUDE = 34; // Values up to 2^41 ns.
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + SUB_BITS)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_MAGNITUDE + 2) * HALF);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if(nanos < 0) { nanos = 0; }
+        if(nanos > MAX_VALUE) { nanos = MAX_VALUE; }
+
+        this.counts.incrementAndGet(index(nanos));
+        this.total.incrementAndGet();
+
+        long m = this.max.get();
+        while(nanos > m && !this.max.compareAndSet(m, nanos)) {
+            m = this.max.get();
+        }
+    }
+
+    private static int index(long v) {
+        int magnitude = 64 - Long.numberOfLeadingZeros(v | ((1 << SUB_BITS) - 1)) - SUB_BITS;
+        int sub = (int)(v >>> magnitude);
+
+        return magnitude * HALF + sub;
+    }
+
+    /**
+     * Highest value that falls in the bucket.
+     */
+    private static long value(int index) {
+        int magnitude = index < 2 * HALF ? 0 : (index / HALF) - 1;
+        long sub = index - magnitude * HALF;
+
+        return ((sub + 1) << magnitude) - 1;
+    }
+
+    public long count() {
+        return this.total.get();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * Value at the given percentile (0 - 100). The max is exact; other percentiles are bucket upper bounds.
+     */
+    public long percentile(double percentile) {
+        long count = this.total.get();
+        if(count == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(count * (percentile / 100));
+        if(rank < 1) { rank = 1; }
+
+        long seen = 0;
+        for(int a = 0; a < this.counts.length(); a++) {
+            seen += this.counts.get(a);
+            if(seen >= rank) {
+                return Math.min(value(a), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    public Summary summarize() {
+        return new Summary(this.count(), this.percentile(50), this.percentile(99), this.percentile(99.9), this.max());
+    }
+
+    public void reset() {
+        for(int a = 0; a < this.counts.length(); a++) {
+            this.counts.set(a, 0);
+        }
+
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * Percentiles of a histogram at one point in time.
+     */
+    public static class Summary {
+        public static final Summary EMPTY = new Summary(0, 0, 0, 0, 0);
+
+        public final long count, p50, p99, p999, max;
+
+        public Summary(long count, long p50, long p99, long p999, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package game.util;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 
 public class MathHelper {
     public static final double degree = Math.PI / 180; // One degree in radians.
@@ -10,6 +9,10 @@ public class MathHelper {
     public static final double ThreePiOver2 = 3 * PiOver2;
     
     public static double lineAngle(Line2D line) {
+        return lineAngle(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+    }
+    
+    public static double lineAngle(double x1, double y1, double x2, double y2) {
         /*
         Treat the line as though the left most point were at the origin so we can
         get the angle of the line. If the left point is p1 and the right point is p2,
@@ -19,17 +22,10 @@ public class MathHelper {
         Note: under these conditions, a slope moving up and right is a positive angle.
         A slope moving down and right is a negative angle.
         */
-        Point2D p = null;
-        
-        if(line.getX2() >= line.getX1()) {
-            p = new Point2D.Double(line.getX2() - line.getX1(), line.getY1() - line.getY2());
-        } else {
-            p = new Point2D.Double(line.getX1() - line.getX2(), line.getY2() - line.getY1());
+        if(x2 >= x1) {
+            return Math.atan2(y1 - y2, x2 - x1);
         }
-
-        // Get the angle of the line.
-        double theta = Math.atan2(p.getY(), p.getX());
         
-        return theta;
+        return Math.atan2(y2 - y1, x1 - x2);
     }
 }
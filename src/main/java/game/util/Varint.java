@@ -0,0 +1,76 @@
+package game.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length integers: 7 bits per byte, low bits first, high bit set on every byte but the last.
+ * Values under 128 take one byte. Signed values are zigzag encoded so small negatives stay small.
+ */
+public class Varint {
+    public static void write(DataOutput out, long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            out.writeByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int)value);
+    }
+
+    public static long read(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+
+        while(true) {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+
+            if((b & 0x80) == 0) {
+                return value;
+            }
+
+            shift += 7;
+            if(shift > 63) {
+                throw new IOException("Malformed varint.");
+            }
+        }
+    }
+
+    public static void put(ByteBuffer out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte)value);
+    }
+
+    public static long get(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+
+        while(true) {
+            int b = in.get() & 0xFF;
+            value |= (long)(b & 0x7F) << shift;
+
+            if((b & 0x80) == 0) {
+                return value;
+            }
+
+            shift += 7;
+            if(shift > 63) {
+                throw new IllegalArgumentException("Malformed varint.");
+            }
+        }
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,261 @@
+package game.world;
+
+import game.Game;
+import game.actor.Actor;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Endless world made of fixed width chunks, generated on demand and evicted when far away.
+ *
+ * Each chunk is generated from its own Random, seeded from the world seed and the chunk index,
+ * so a chunk comes out the same no matter when or in what order it's generated. The terrain
+ * lines start and end at heights that depend only on the boundary between two chunks, so
+ * neighbouring chunks always join up.
+ *
+ * The chunks within loadDistance of the focus point are always loaded, and a couple more are
+ * kept behind it. When a new chunk is needed and the world is full, the least recently used
+ * chunk outside the load range is dropped, so memory stays the same however far the focus goes.
+ */
+public class ChunkedWorld {
+    public static final int DEFAULT_CHUNK_WIDTH = 1000;
+
+    private static final int TILE_COLS = 5, TILE_ROWS = 25; // Background grid tiles per chunk.
+    private static final int GROUND = 0, LEDGES = 1; // Terrain lines.
+    private static final int BOUNDARY_RANGE = 60; // Ground heights at chunk boundaries vary this much either side of the middle.
+
+    private final long seed;
+    private final int chunkWidth;
+    private final int height;
+    private final int loadDistance;
+
+    private final Chunk[] chunks;
+    private int loaded = 0;
+    private long clock = 0;
+    private int from = 1, to = 0; // Chunk range loaded by the last update.
+
+    private List<Line2D> walls = new ArrayList<Line2D>();
+    private List<Actor> gobs = new ArrayList<Actor>();
+
+    private static class Chunk {
+        int index;
+        long lastUsed;
+        final List<Line2D> walls = new ArrayList<Line2D>();
+        final List<Actor> gobs = new ArrayList<Actor>();
+    }
+
+    public ChunkedWorld(long seed, int chunkWidth, int height, int loadDistance) {
+        this.seed = seed;
+        this.chunkWidth = chunkWidth;
+        this.height = height;
+        this.loadDistance = loadDistance;
+
+        // Room for the chunks in range plus two behind, so turning around doesn't regenerate straight away.
+        this.chunks = new Chunk[(2 * loadDistance) / chunkWidth + 4];
+    }
+
+    /**
+     * Load the chunks within the load distance of x.
+     *
+     * @return True if chunks were loaded, in which case getWalls() and getGobs() return new lists.
+     */
+    public boolean update(double x) {
+        int c0 = (int)Math.floor((x - this.loadDistance) / this.chunkWidth);
+        int c1 = (int)Math.floor((x + this.loadDistance) / this.chunkWidth);
+
+        if(c0 == this.from && c1 == this.to) {
+            return false;
+        }
+
+        this.from = c0;
+        this.to = c1;
+
+        boolean changed = false;
+        for(int c = c0; c <= c1; c++) {
+            Chunk chunk = this.find(c);
+            if(chunk == null) {
+                chunk = this.generate(c, this.free(c0, c1));
+                changed = true;
+            }
+
+            chunk.lastUsed = ++this.clock;
+        }
+
+        if(changed) {
+            this.rebuild();
+        }
+
+        return changed;
+    }
+
+    /**
+     * Walls of the loaded chunks, in chunk order. The list is replaced, not modified, when chunks load.
+     */
+    public List<Line2D> getWalls() {
+        return this.walls;
+    }
+
+    /**
+     * Game objects of the loaded chunks, in chunk order. The list is replaced, not modified, when chunks load.
+     */
+    public List<Actor> getGobs() {
+        return this.gobs;
+    }
+
+    public int getLoadedCount() {
+        return this.loaded;
+    }
+
+    private Chunk find(int index) {
+        for(int a = 0; a < this.loaded; a++) {
+            if(this.chunks[a].index == index) {
+                return this.chunks[a];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Take an empty chunk, or the least recently used one outside the range.
+     */
+    private Chunk free(int c0, int c1) {
+        if(this.loaded < this.chunks.length) {
+            Chunk chunk = new Chunk();
+            this.chunks[this.loaded++] = chunk;
+            return chunk;
+        }
+
+        Chunk lru = null;
+        for(int a = 0; a < this.loaded; a++) {
+            Chunk chunk = this.chunks[a];
+            if(chunk.index >= c0 && chunk.index <= c1) {
+                continue;
+            }
+
+            if(lru == null || chunk.lastUsed < lru.lastUsed) {
+                lru = chunk;
+            }
+        }
+
+        lru.walls.clear();
+        lru.gobs.clear();
+        return lru;
+    }
+
+    /**
+     * Collect the loaded chunks' content into new lists, in chunk order so the result doesn't depend on load history.
+     */
+    private void rebuild() {
+        Chunk[] sorted = Arrays.copyOf(this.chunks, this.loaded);
+        Arrays.sort(sorted, new Comparator<Chunk>() {
+            @Override
+            public int compare(Chunk a, Chunk b) {
+                return Integer.compare(a.index, b.index);
+            }
+        });
+
+        List<Line2D> walls = new ArrayList<Line2D>();
+        List<Actor> gobs = new ArrayList<Actor>();
+        for(Chunk chunk : sorted) {
+            walls.addAll(chunk.walls);
+            gobs.addAll(chunk.gobs);
+        }
+
+        this.walls = walls;
+        this.gobs = gobs;
+    }
+
+    private Chunk generate(int index, Chunk chunk) {
+        chunk.index = index;
+        this.generate(index, chunk.walls, chunk.gobs);
+
+        return chunk;
+    }
+
+    /**
+     * Generate a chunk's walls and background tiles into the given lists, without loading it.
+     * Pass null for the tiles to skip them.
+     */
+    public void generate(int index, List<Line2D> walls, List<Actor> gobs) {
+        Random ran = new Random(chunkSeed(this.seed, index));
+        int x0 = index * this.chunkWidth;
+
+        // Background grid.
+        if(gobs != null) {
+            int w = this.chunkWidth / TILE_COLS;
+            int h = this.height / TILE_ROWS;
+            for(int a = 0; a < TILE_COLS; a++) {
+                for(int b = 0; b < TILE_ROWS; b++) {
+                    gobs.add(Game.createTile(x0 + a * w, b * h, w, h));
+                }
+            }
+        }
+
+        // Ground line, and a broken line of ledges above it.
+        this.line(walls, ran, GROUND, index, 200, 1);
+        this.line(walls, ran, LEDGES, index, 300, .8);
+
+        // Steep angle slide demonstration.
+        if(index == 0) {
+            World.addSlideDemonstration(walls, 0, this.height / 2);
+        }
+    }
+
+    /**
+     * Random walk across the chunk, from the boundary height at its left edge to the one at its right edge.
+     * Each segment is pulled towards the end height in proportion to how much of the remaining width it covers.
+     */
+    private void line(List<Line2D> walls, Random ran, int line, int index, int step, double keep) {
+        int x1 = (index + 1) * this.chunkWidth;
+        int endY = this.boundaryY(line, index + 1);
+        int prevX = index * this.chunkWidth;
+        int prevY = this.boundaryY(line, index);
+
+        while(prevX < x1) {
+            int x = ran.nextInt(step) + 10 + prevX;
+            int y;
+            if(x >= x1 - 10) {
+                x = x1;
+                y = endY;
+            } else {
+                y = ran.nextInt(30);
+                if(ran.nextDouble() <= .5) { y = -y; } // Negative
+                y += prevY + (int)((long)(endY - prevY) * (x - prevX) / (x1 - prevX));
+            }
+
+            if(keep >= 1 || ran.nextDouble() < keep) {
+                walls.add(new Line2D.Double(prevX, prevY, x, y));
+            }
+
+            prevX = x;
+            prevY = y;
+        }
+    }
+
+    /**
+     * Height of a terrain line where it crosses the boundary at the left edge of the given chunk.
+     * The ledges cross 20 to 80 pixels above the ground, so the two lines rarely meet.
+     */
+    private int boundaryY(int line, int boundary) {
+        Random ran = new Random(chunkSeed(this.seed ^ 0x9E3779B97F4A7C15L, boundary));
+        int ground = (this.height / 2) + ran.nextInt(2 * BOUNDARY_RANGE + 1) - BOUNDARY_RANGE;
+
+        return line == GROUND ? ground : ground - 20 - ran.nextInt(61);
+    }
+
+    /**
+     * Seed for a chunk, mixed so that neighbouring chunk indexes get unrelated seeds (SplitMix64 finalizer).
+     */
+    public static long chunkSeed(long seed, int index) {
+        long z = seed + 0x9E3779B97F4A7C15L * (index + 1L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,307 @@
+package game.world;
+
+import game.Game;
+import game.actor.Actor;
+import java.awt.geom.Line2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary level file. Walls are stored as packed coordinates and read straight into a WallIndex
+ * with bulk buffer copies, so opening a level with millions of walls costs little more than
+ * reading the file. The spatial index can be stored too, in which case it isn't rebuilt either.
+ *
+ * Layout (little endian, sections 8 byte aligned):
+ *   header, 64 bytes: int magic "SIML", version, flags, world width, world height, wall count, prop count, unused;
+ *                     long walls offset, props offset, index offset (0 if none), index size
+ *   walls: x1, y1, x2, y2 per wall, as doubles, or floats with FLOAT_COORDS
+ *   props: int type, x, y, w, h per static prop
+ *   index: double origin x, origin y, cell size; int cols, rows, cell wall count, unused;
+ *          int cell start[cols * rows + 1], int cell walls[cell wall count]
+ *
+ * Each section is mapped separately, so sections are limited to 2GB each.
+ */
+public class LevelFile {
+    public static final int MAGIC = 0x53494D4C;
+    public static final int VERSION = 1;
+    public static final int FLOAT_COORDS = 1; // Flag: coordinates are floats, halving the wall section.
+    public static final int PROP_TILE = 0; // Background grid tile, see Game.createTile.
+    public static final int PROP_INTS = 5; // Type, x, y, w, h.
+
+    private static final int HEADER_SIZE = 64;
+    private static final int INDEX_HEADER_SIZE = 40;
+
+    /**
+     * A level: its size, walls and props.
+     */
+    public static class Level {
+        public final int width, height;
+        public final WallIndex walls;
+        public final int[] props; // type, x, y, w, h per prop.
+
+        /**
+         * A level built in memory rather than loaded, e.g. for the scenarios (see game.Scenarios).
+         */
+        public Level(int width, int height, WallIndex walls, int[] props) {
+            this.width = width;
+            this.height = height;
+            this.walls = walls;
+            this.props = props;
+        }
+
+        public int getPropCount() {
+            return this.props.length / PROP_INTS;
+        }
+
+        /**
+         * Create the props' game objects.
+         */
+        public List<Actor> createProps() {
+            List<Actor> gobs = new ArrayList<Actor>(this.getPropCount());
+
+            for(int a = 0; a < this.props.length; a += PROP_INTS) {
+                if(this.props[a] == PROP_TILE) {
+                    gobs.add(Game.createTile(this.props[a + 1], this.props[a + 2], this.props[a + 3], this.props[a + 4]));
+                }
+            }
+
+            return gobs;
+        }
+    }
+
+    /**
+     * Write a level. Static game objects are written as tiles; the rest are skipped.
+     */
+    public static void write(File file, int width, int height, WallIndex walls, List<Actor> gobs, boolean floatCoords, boolean withIndex) throws IOException {
+        double[] coords = walls.getCoords();
+        if(floatCoords) {
+            // Index the coordinates as they will be read back.
+            coords = coords.clone();
+            for(int a = 0; a < coords.length; a++) {
+                coords[a] = (float)coords[a];
+            }
+
+            walls = new WallIndex(coords, walls.getCellSize());
+        }
+
+        List<Actor> props = new ArrayList<Actor>();
+        for(Actor a : gobs) {
+            if(a.isStatic()) {
+                props.add(a);
+            }
+        }
+
+        long wallsOffset = HEADER_SIZE;
+        long propsOffset = align(wallsOffset + (long)coords.length * (floatCoords ? 4 : 8));
+        long indexOffset = align(propsOffset + (long)props.size() * PROP_INTS * 4);
+        long indexSize = withIndex ? INDEX_HEADER_SIZE + ((long)walls.getCellStart().length + walls.getCellWalls().length) * 4 : 0;
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(indexOffset + indexSize);
+            FileChannel channel = raf.getChannel();
+
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(floatCoords ? FLOAT_COORDS : 0);
+            header.putInt(width).putInt(height).putInt(walls.size()).putInt(props.size()).putInt(0);
+            header.putLong(wallsOffset).putLong(propsOffset).putLong(withIndex ? indexOffset : 0).putLong(indexSize);
+
+            ByteBuffer section = map(channel, FileChannel.MapMode.READ_WRITE, wallsOffset, propsOffset - wallsOffset);
+            if(floatCoords) {
+                FloatBuffer out = section.asFloatBuffer();
+                for(int a = 0; a < coords.length; a++) {
+                    out.put(a, (float)coords[a]);
+                }
+            } else {
+                section.asDoubleBuffer().put(coords);
+            }
+
+            section = map(channel, FileChannel.MapMode.READ_WRITE, propsOffset, indexOffset - propsOffset);
+            for(Actor a : props) {
+                section.putInt(PROP_TILE).putInt((int)a.x).putInt((int)a.y).putInt((int)a.w).putInt((int)a.h);
+            }
+
+            if(withIndex) {
+                section = map(channel, FileChannel.MapMode.READ_WRITE, indexOffset, indexSize);
+                section.putDouble(walls.getOriginX()).putDouble(walls.getOriginY()).putDouble(walls.getCellSize());
+                section.putInt(walls.getCols()).putInt(walls.getRows()).putInt(walls.getCellWalls().length).putInt(0);
+                section.asIntBuffer().put(walls.getCellStart()).put(walls.getCellWalls());
+            }
+        }
+    }
+
+    /**
+     * Load a level. Without a stored index, the index is built with the default cell size.
+     */
+    public static Level load(File file) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            if(size < HEADER_SIZE) {
+                throw new IOException("Not a level file: " + file);
+            }
+
+            ByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if(header.getInt() != MAGIC) {
+                throw new IOException("Not a level file: " + file);
+            }
+
+            int version = header.getInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported level file version " + version + ": " + file);
+            }
+
+            int flags = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            int wallCount = header.getInt();
+            int propCount = header.getInt();
+            header.getInt();
+            long wallsOffset = header.getLong();
+            long propsOffset = header.getLong();
+            long indexOffset = header.getLong();
+            long indexSize = header.getLong();
+
+            boolean floatCoords = (flags & FLOAT_COORDS) != 0;
+            long wallsSize = (long)wallCount * 4 * (floatCoords ? 4 : 8);
+            long propsSize = (long)propCount * PROP_INTS * 4;
+            if(wallsOffset + wallsSize > size || propsOffset + propsSize > size || indexOffset + indexSize > size) {
+                throw new IOException("Truncated level file: " + file);
+            }
+
+            // Walls.
+            double[] coords = new double[wallCount * 4];
+            ByteBuffer section = map(channel, FileChannel.MapMode.READ_ONLY, wallsOffset, wallsSize);
+            if(floatCoords) {
+                FloatBuffer in = section.asFloatBuffer();
+                for(int a = 0; a < coords.length; a++) {
+                    coords[a] = in.get(a);
+                }
+            } else {
+                section.asDoubleBuffer().get(coords);
+            }
+
+            // Props.
+            int[] props = new int[propCount * PROP_INTS];
+            map(channel, FileChannel.MapMode.READ_ONLY, propsOffset, propsSize).asIntBuffer().get(props);
+
+            // Index.
+            WallIndex walls;
+            if(indexOffset != 0) {
+                section = map(channel, FileChannel.MapMode.READ_ONLY, indexOffset, indexSize);
+                double originX = section.getDouble();
+                double originY = section.getDouble();
+                double cellSize = section.getDouble();
+                int cols = section.getInt();
+                int rows = section.getInt();
+                int cellWallCount = section.getInt();
+                section.getInt();
+
+                if(cols <= 0 || rows <= 0 || cellWallCount < 0 || INDEX_HEADER_SIZE + ((long)cols * rows + 1 + cellWallCount) * 4 != indexSize) {
+                    throw new IOException("Corrupt level index: " + file);
+                }
+
+                int[] cellStart = new int[cols * rows + 1];
+                int[] cellWalls = new int[cellWallCount];
+                section.asIntBuffer().get(cellStart).get(cellWalls);
+
+                // The cells' runs must tile the wall list in order, and name only walls in the file.
+                if(cellStart[0] != 0 || cellStart[cellStart.length - 1] != cellWallCount) {
+                    throw new IOException("Corrupt level index: " + file);
+                }
+                for(int a = 1; a < cellStart.length; a++) {
+                    if(cellStart[a] < cellStart[a - 1]) {
+                        throw new IOException("Corrupt level index: " + file);
+                    }
+                }
+                for(int a = 0; a < cellWalls.length; a++) {
+                    if(cellWalls[a] < 0 || cellWalls[a] >= wallCount) {
+                        throw new IOException("Corrupt level index: " + file);
+                    }
+                }
+
+                walls = new WallIndex(coords, originX, originY, cellSize, cols, rows, cellStart, cellWalls);
+            } else {
+                walls = new WallIndex(coords, WallIndex.DEFAULT_CELL_SIZE);
+            }
+
+            return new Level(width, height, walls, props);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long size) throws IOException {
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Level file section too large: " + size + " bytes.");
+        }
+
+        return channel.map(mode, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Write the generated world to a level file, then time loading it back.
+     *
+     * Usage: LevelFile <file> [chunks N] [float] [noindex]
+     *
+     * By default the fixed size world is written. With chunks, the walls of the first N chunks of the
+     * endless world are written instead (no tiles), for testing large levels.
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        if(args.length < 1) {
+            Game.log("Usage: LevelFile <file> [chunks N] [float] [noindex]");
+            System.exit(2);
+        }
+
+        File file = new File(args[0]);
+        int chunks = 0;
+        boolean floatCoords = false;
+        boolean withIndex = true;
+        for(int a = 1; a < args.length; a++) {
+            if(args[a].equals("chunks")) {
+                chunks = Integer.parseInt(args[++a]);
+            } else if(args[a].equals("float")) {
+                floatCoords = true;
+            } else if(args[a].equals("noindex")) {
+                withIndex = false;
+            }
+        }
+
+        long start = System.nanoTime();
+        if(chunks > 0) {
+            int height = 3000;
+            ChunkedWorld world = new ChunkedWorld(0, ChunkedWorld.DEFAULT_CHUNK_WIDTH, height, 0);
+            List<Line2D> lines = new ArrayList<Line2D>();
+            for(int a = 0; a < chunks; a++) {
+                world.generate(a, lines, null);
+            }
+
+            WallIndex walls = new WallIndex(lines, WallIndex.DEFAULT_CELL_SIZE);
+            lines = null;
+            Game.log("Generated " + walls.size() + " walls in " + (System.nanoTime() - start) / 1000000 + " ms.");
+            LevelFile.write(file, chunks * ChunkedWorld.DEFAULT_CHUNK_WIDTH, height, walls, new ArrayList<Actor>(), floatCoords, withIndex);
+        } else {
+            Game.create(1000, 600, 0);
+            Game.log("Generated " + Game.WALL_INDEX.size() + " walls in " + (System.nanoTime() - start) / 1000000 + " ms.");
+            LevelFile.write(file, Game.WORLD_WIDTH, Game.WORLD_HEIGHT, Game.WALL_INDEX, Game.GOBS, floatCoords, withIndex);
+        }
+
+        Game.log("Wrote " + file + ", " + file.length() + " bytes.");
+
+        start = System.nanoTime();
+        Level level = LevelFile.load(file);
+        Game.log("Loaded " + level.walls.size() + " walls and " + level.getPropCount() + " props in " + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+}
@@ -0,0 +1,472 @@
+package game.world;
+
+import game.util.MathHelper;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static uniform grid over the wall segments.
+ *
+ * The index is built once after the world has been generated. Each wall is
+ * registered in every cell its bounding box overlaps. A query collects the walls
+ * registered in the cells overlapping the query box and returns their ids in
+ * ascending order, which is the same order as the original wall list. Code that
+ * scans the query result and breaks on the first hit therefore behaves exactly
+ * like code that scans the whole list and breaks on the first hit.
+ */
+public class WallIndex {
+    public static final double DEFAULT_CELL_SIZE = 64;
+    public static final double STEEP_ANGLE = MathHelper.degree * 25; // Walls within this of vertical are classified as steep.
+    private static final int MAX_CELLS = 1 << 22; // Cap on grid memory. The cell size grows to stay under it.
+    private static final double PAD = 1; // Query boxes are padded so rounding in the intersection tests can't drop a candidate.
+
+    private final int count;
+    private final double[] coords; // x1, y1, x2, y2 per wall.
+
+    private final double originX, originY;
+    private final double cellSize;
+    private final int cols, rows;
+    private final int[] cellStart; // Offset of each cell's wall list in cellWalls. Length is cells + 1.
+    private final int[] cellWalls; // Wall ids, grouped by cell, ascending within a cell.
+
+    // Geometry derived from the coordinates once, when the index is built.
+    private final double[] bounds; // min x, min y, max x, max y per wall.
+    private final double[] angles; // MathHelper.lineAngle per wall.
+    private final double[] cosines, sines; // Of the angle. Together, the unit direction from the left end to the right end, with y up.
+    private final boolean[] steep; // Angle within STEEP_ANGLE of vertical.
+
+    public WallIndex(List<? extends Line2D> walls, double cellSize) {
+        this(toCoords(walls), cellSize);
+    }
+
+    /**
+     * Index packed wall coordinates: x1, y1, x2, y2 per wall. The array is kept, not copied.
+     */
+    public WallIndex(double[] coords, double cellSize) {
+        this.count = coords.length / 4;
+        this.coords = coords;
+        this.bounds = new double[this.count * 4];
+        this.angles = new double[this.count];
+        this.cosines = new double[this.count];
+        this.sines = new double[this.count];
+        this.steep = new boolean[this.count];
+        this.derive();
+
+        // Bounds of all walls.
+        double minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for(int a = 0; a < this.count; a++) {
+            double x0 = this.bounds[a * 4];
+            double y0 = this.bounds[a * 4 + 1];
+            double x1 = this.bounds[a * 4 + 2];
+            double y1 = this.bounds[a * 4 + 3];
+
+            if(a == 0 || x0 < minX) { minX = x0; }
+            if(a == 0 || y0 < minY) { minY = y0; }
+            if(a == 0 || x1 > maxX) { maxX = x1; }
+            if(a == 0 || y1 > maxY) { maxY = y1; }
+        }
+
+        // Grow the cell size until the grid fits the memory cap.
+        while(cells(maxX - minX, cellSize) * cells(maxY - minY, cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+
+        this.originX = minX;
+        this.originY = minY;
+        this.cellSize = cellSize;
+        this.cols = (int)cells(maxX - minX, cellSize);
+        this.rows = (int)cells(maxY - minY, cellSize);
+
+        // Count the walls per cell, then fill. Walls are visited in id order, so each cell's list is sorted.
+        this.cellStart = new int[this.cols * this.rows + 1];
+        for(int a = 0; a < this.count; a++) {
+            int c0 = this.col(this.bounds[a * 4]);
+            int c1 = this.col(this.bounds[a * 4 + 2]);
+            int r0 = this.row(this.bounds[a * 4 + 1]);
+            int r1 = this.row(this.bounds[a * 4 + 3]);
+
+            for(int r = r0; r <= r1; r++) {
+                for(int c = c0; c <= c1; c++) {
+                    this.cellStart[r * this.cols + c + 1]++;
+                }
+            }
+        }
+
+        for(int a = 1; a < this.cellStart.length; a++) {
+            this.cellStart[a] += this.cellStart[a - 1];
+        }
+
+        this.cellWalls = new int[this.cellStart[this.cellStart.length - 1]];
+        int[] fill = Arrays.copyOf(this.cellStart, this.cellStart.length - 1);
+        for(int a = 0; a < this.count; a++) {
+            int c0 = this.col(this.bounds[a * 4]);
+            int c1 = this.col(this.bounds[a * 4 + 2]);
+            int r0 = this.row(this.bounds[a * 4 + 1]);
+            int r1 = this.row(this.bounds[a * 4 + 3]);
+
+            for(int r = r0; r <= r1; r++) {
+                for(int c = c0; c <= c1; c++) {
+                    this.cellWalls[fill[r * this.cols + c]++] = a;
+                }
+            }
+        }
+    }
+
+    /**
+     * Use a grid that was built before, e.g. read from a level file. The arrays are kept, not copied.
+     */
+    WallIndex(double[] coords, double originX, double originY, double cellSize, int cols, int rows, int[] cellStart, int[] cellWalls) {
+        this.count = coords.length / 4;
+        this.coords = coords;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.cellWalls = cellWalls;
+        this.bounds = new double[this.count * 4];
+        this.angles = new double[this.count];
+        this.cosines = new double[this.count];
+        this.sines = new double[this.count];
+        this.steep = new boolean[this.count];
+        this.derive();
+    }
+
+    /**
+     * Work out each wall's bounding box, angle and steepness, so queries and collision responses
+     * read them instead of recomputing them.
+     */
+    private void derive() {
+        for(int a = 0; a < this.count; a++) {
+            int o = a * 4;
+            double x1 = this.coords[o], y1 = this.coords[o + 1], x2 = this.coords[o + 2], y2 = this.coords[o + 3];
+
+            this.bounds[o] = Math.min(x1, x2);
+            this.bounds[o + 1] = Math.min(y1, y2);
+            this.bounds[o + 2] = Math.max(x1, x2);
+            this.bounds[o + 3] = Math.max(y1, y2);
+
+            double theta = MathHelper.lineAngle(x1, y1, x2, y2);
+            this.angles[a] = theta;
+            this.cosines[a] = Math.cos(theta);
+            this.sines[a] = Math.sin(theta);
+            this.steep[a] = isSteep(theta, STEEP_ANGLE);
+        }
+    }
+
+    /**
+     * True if a wall at the angle is within steepAngle of vertical.
+     */
+    public static boolean isSteep(double theta, double steepAngle) {
+        return Math.abs(theta) > MathHelper.PiOver2 - steepAngle && Math.abs(theta) < MathHelper.PiOver2 + steepAngle;
+    }
+
+    private static double[] toCoords(List<? extends Line2D> walls) {
+        double[] coords = new double[walls.size() * 4];
+
+        for(int a = 0; a < walls.size(); a++) {
+            Line2D line = walls.get(a);
+            coords[a * 4] = line.getX1();
+            coords[a * 4 + 1] = line.getY1();
+            coords[a * 4 + 2] = line.getX2();
+            coords[a * 4 + 3] = line.getY2();
+        }
+
+        return coords;
+    }
+
+    private static long cells(double length, double cellSize) {
+        return (long)Math.floor(length / cellSize) + 1;
+    }
+
+    /*
+    Cell coordinates are clamped to the grid. Clamping is monotonic, so a wall and
+    a query box that overlap always share at least one (possibly clamped) cell.
+    */
+    private int col(double x) {
+        int c = (int)Math.floor((x - this.originX) / this.cellSize);
+        return c < 0 ? 0 : (c >= this.cols ? this.cols - 1 : c);
+    }
+
+    private int row(double y) {
+        int r = (int)Math.floor((y - this.originY) / this.cellSize);
+        return r < 0 ? 0 : (r >= this.rows ? this.rows - 1 : r);
+    }
+
+    /**
+     * Find the walls whose bounding box overlaps the bounding box of the segment (x1, y1) - (x2, y2).
+     */
+    public Result query(double x1, double y1, double x2, double y2, Result result) {
+        return this.queryBox(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), result);
+    }
+
+    /**
+     * Find the walls whose bounding box overlaps the rectangle.
+     */
+    public Result query(Rectangle2D r, Result result) {
+        return this.queryBox(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY(), result);
+    }
+
+    private Result queryBox(double minX, double minY, double maxX, double maxY, Result result) {
+        result.count = 0;
+
+        minX -= PAD;
+        minY -= PAD;
+        maxX += PAD;
+        maxY += PAD;
+
+        int c0 = this.col(minX);
+        int c1 = this.col(maxX);
+        int r0 = this.row(minY);
+        int r1 = this.row(maxY);
+
+        for(int r = r0; r <= r1; r++) {
+            for(int c = c0; c <= c1; c++) {
+                int cell = r * this.cols + c;
+
+                for(int a = this.cellStart[cell]; a < this.cellStart[cell + 1]; a++) {
+                    int id = this.cellWalls[a];
+                    int o = id * 4;
+
+                    // Skip walls whose own bounding box misses the query box.
+                    if(this.bounds[o + 2] < minX || this.bounds[o] > maxX) { continue; }
+                    if(this.bounds[o + 3] < minY || this.bounds[o + 1] > maxY) { continue; }
+
+                    result.add(id);
+                }
+            }
+        }
+
+        // A wall spanning several cells is found once per cell. Sort back into list order and drop the duplicates.
+        if(r0 != r1 || c0 != c1) {
+            result.sortUnique();
+        }
+
+        return result;
+    }
+
+    /**
+     * Test the wall against the segment (x1, y1) - (x2, y2). Same result as Line2D.intersectsLine on the wall.
+     */
+    public boolean intersectsLine(int id, double x1, double y1, double x2, double y2) {
+        int o = id * 4;
+        return Line2D.linesIntersect(x1, y1, x2, y2, this.coords[o], this.coords[o + 1], this.coords[o + 2], this.coords[o + 3]);
+    }
+
+    /**
+     * Sweep a point from (x1, y1) to (x2, y2) against the candidate walls, usually the result of a
+     * query covering the motion, and find the wall it reaches first.
+     *
+     * @return True if a wall is hit. The contact then holds the wall and the fraction of the motion
+     * completed at impact. Ties go to the wall first in list order.
+     */
+    public boolean sweep(double x1, double y1, double x2, double y2, Result candidates, Contact contact) {
+        contact.wall = -1;
+        contact.time = Double.POSITIVE_INFINITY;
+
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double minX = Math.min(x1, x2), minY = Math.min(y1, y2), maxX = Math.max(x1, x2), maxY = Math.max(y1, y2);
+
+        for(int a = 0; a < candidates.count; a++) {
+            int id = candidates.ids[a];
+            int o = id * 4;
+
+            // The candidates may come from a larger query. Skip walls whose bounding box misses the motion's.
+            if(this.bounds[o + 2] < minX || this.bounds[o] > maxX || this.bounds[o + 3] < minY || this.bounds[o + 1] > maxY) {
+                continue;
+            }
+
+            if(!Line2D.linesIntersect(x1, y1, x2, y2, this.coords[o], this.coords[o + 1], this.coords[o + 2], this.coords[o + 3])) {
+                continue;
+            }
+
+            // Solve (x1, y1) + t * (dx, dy) = wall start + u * (ex, ey) for t.
+            double ex = this.coords[o + 2] - this.coords[o];
+            double ey = this.coords[o + 3] - this.coords[o + 1];
+            double denom = dx * ey - dy * ex;
+
+            double t = 0; // Parallel and overlapping: in contact from the start.
+            if(denom != 0) {
+                t = ((this.coords[o] - x1) * ey - (this.coords[o + 1] - y1) * ex) / denom;
+                t = t < 0 ? 0 : (t > 1 ? 1 : t);
+            }
+
+            if(t < contact.time) {
+                contact.wall = id;
+                contact.time = t;
+            }
+        }
+
+        return contact.wall >= 0;
+    }
+
+    /**
+     * Test the wall against the rectangle. Same result as Line2D.intersects on the wall.
+     */
+    public boolean intersects(int id, Rectangle2D r) {
+        int o = id * 4;
+        return r.intersectsLine(this.coords[o], this.coords[o + 1], this.coords[o + 2], this.coords[o + 3]);
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    public double getX1(int id) {
+        return this.coords[id * 4];
+    }
+
+    public double getY1(int id) {
+        return this.coords[id * 4 + 1];
+    }
+
+    public double getX2(int id) {
+        return this.coords[id * 4 + 2];
+    }
+
+    public double getY2(int id) {
+        return this.coords[id * 4 + 3];
+    }
+
+    /**
+     * Angle of the wall, as MathHelper.lineAngle: positive when it rises to the right.
+     */
+    public double getAngle(int id) {
+        return this.angles[id];
+    }
+
+    public double getCos(int id) {
+        return this.cosines[id];
+    }
+
+    public double getSin(int id) {
+        return this.sines[id];
+    }
+
+    /**
+     * True if the wall is within STEEP_ANGLE of vertical: too steep to climb or stand on.
+     */
+    public boolean isSteep(int id) {
+        return this.steep[id];
+    }
+
+    public double getMinX(int id) {
+        return this.bounds[id * 4];
+    }
+
+    public double getMinY(int id) {
+        return this.bounds[id * 4 + 1];
+    }
+
+    public double getMaxX(int id) {
+        return this.bounds[id * 4 + 2];
+    }
+
+    public double getMaxY(int id) {
+        return this.bounds[id * 4 + 3];
+    }
+
+    /**
+     * The walls as a list. Lines are created on access, so the list costs nothing until it's used.
+     */
+    public List<Line2D> asList() {
+        return new AbstractList<Line2D>() {
+            @Override
+            public Line2D get(int id) {
+                return new Line2D.Double(getX1(id), getY1(id), getX2(id), getY2(id));
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    // Raw index data, for LevelFile.
+
+    double[] getCoords() {
+        return this.coords;
+    }
+
+    double getOriginX() {
+        return this.originX;
+    }
+
+    double getOriginY() {
+        return this.originY;
+    }
+
+    double getCellSize() {
+        return this.cellSize;
+    }
+
+    int getCols() {
+        return this.cols;
+    }
+
+    int getRows() {
+        return this.rows;
+    }
+
+    int[] getCellStart() {
+        return this.cellStart;
+    }
+
+    int[] getCellWalls() {
+        return this.cellWalls;
+    }
+
+    /**
+     * Reusable sweep result.
+     */
+    public static class Contact {
+        public int wall = -1;
+        public double time; // Fraction of the motion completed at impact, 0 to 1.
+    }
+
+    /**
+     * Reusable query result. The id buffer only grows, so steady state queries don't allocate.
+     */
+    public static class Result {
+        public int[] ids;
+        public int count = 0;
+
+        public Result() {
+            this(32);
+        }
+
+        /**
+         * Start with room for the given number of ids, so queries up to that size never allocate.
+         */
+        public Result(int capacity) {
+            this.ids = new int[capacity];
+        }
+
+        private void add(int id) {
+            if(this.count == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.ids.length * 2);
+            }
+
+            this.ids[this.count++] = id;
+        }
+
+        private void sortUnique() {
+            Arrays.sort(this.ids, 0, this.count);
+
+            int n = 0;
+            for(int a = 0; a < this.count; a++) {
+                if(n == 0 || this.ids[n - 1] != this.ids[a]) {
+                    this.ids[n++] = this.ids[a];
+                }
+            }
+
+            this.count = n;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package game.world;
+
+import game.Game;
+import game.actor.Actor;
+import game.actor.ActorStore;
+import game.actor.Movement;
+import game.actor.Player;
+import game.camera.Camera;
+import game.nav.Navigator;
+import java.awt.geom.Line2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One simulation: its walls and props, store actors, player, camera and random numbers.
+ *
+ * The constructor only reads Game's final option flags (CHUNKED, LEVEL and AI), and a world keeps no state
+ * in the Game statics, so any number of them can run at once, each on one thread at a time (see
+ * BatchRunner). The game plays one world, whose parts it publishes through the Game statics for drawing
+ * (see Game.create()).
+ *
+ * The world is generated from the seed, or loaded from the -Dsim.level file, or with -Dsim.world=chunked
+ * generated in chunks around the player as it moves. With -Dsim.ai=true the store actors chase the player.
+ */
+public class World {
+    public final long seed;
+    public final Movement movement; // Rules for the player and the store actors.
+    public int width, height;
+    public List<Actor> gobs = new ArrayList<Actor>();
+    public List<Line2D> walls = new ArrayList<Line2D>();
+    public WallIndex wallIndex; // Spatial index over walls.
+    public final ChunkedWorld chunks; // Null unless the world is endless.
+    public int version = 0; // Goes up whenever chunks load and gobs, walls and wallIndex are replaced.
+    public final ActorStore actors;
+    public Navigator navigator; // Steers the store actors with Game.AI. Null otherwise.
+    public final Player player;
+    public final Camera camera;
+
+    private final Random random;
+
+    /**
+     * Create the world for a view of the given size, with the given number of store actors.
+     */
+    public World(long seed, int viewWidth, int viewHeight, int actorCount, Movement movement) {
+        this(seed, viewWidth, viewHeight, null, actorCount, movement);
+    }
+
+    /**
+     * Create the world from the given level instead of generating or loading one, e.g. for the scenarios
+     * (see game.Scenarios). The store actors spawn across the whole level.
+     */
+    public World(long seed, int viewWidth, int viewHeight, LevelFile.Level level, int actorCount, Movement movement) {
+        this.seed = seed;
+        this.movement = movement;
+        this.random = new Random(seed);
+
+        this.width = viewWidth * 5;
+        this.height = viewHeight * 5;
+
+        int spawnWidth;
+        if(level != null) {
+            this.chunks = null;
+            this.setLevel(level);
+            spawnWidth = this.width;
+        } else if(Game.CHUNKED) {
+            // Generate the chunks around the start now, and the rest as the player gets near them.
+            int loadDistance = viewWidth + ChunkedWorld.DEFAULT_CHUNK_WIDTH;
+            this.chunks = new ChunkedWorld(seed, ChunkedWorld.DEFAULT_CHUNK_WIDTH, this.height, loadDistance);
+            this.chunks.update(0);
+            this.loadChunks();
+            spawnWidth = loadDistance;
+        } else if(Game.LEVEL != null) {
+            this.chunks = null;
+            this.setLevel(World.loadLevel(new File(Game.LEVEL)));
+            spawnWidth = this.width;
+        } else {
+            this.chunks = null;
+            this.generate();
+            spawnWidth = this.width;
+        }
+
+        // Spawn store actors above the ground, walking in a random direction.
+        this.actors = new ActorStore(actorCount, movement);
+        for(int a = 0; a < actorCount; a++) {
+            int i = this.actors.add(this.ran(spawnWidth - 20) + 10, (this.height / 2) - 100, 8, 8);
+            this.actors.setInput(i, this.ran() < .5 ? ActorStore.LEFT : ActorStore.RIGHT);
+        }
+        
+        if(Game.AI) {
+            this.navigator = new Navigator(this.actors, this.wallIndex, movement, Navigator.DEFAULT_CACHE_SIZE);
+        }
+
+        // Create player.
+        int playersize = 10;
+        this.player = new Player(0, (this.height / 2) - 100, playersize, playersize);
+        this.player.setMovement(movement);
+
+        // Create camera.
+        this.camera = new Camera(0, 0, viewWidth, viewHeight);
+        this.camera.setTarget(this.player);
+        this.camera.setWorld(this);
+    }
+
+    /**
+     * Generate the fixed size world.
+     */
+    private void generate() {
+        // Create background grid.
+        int num = 25;
+        for(int a = 0; a < num; a++) {
+            for(int b = 0; b < num; b++) {
+                int w = this.width / num;
+                int h = this.height / num;
+                int x = a * w;
+                int y = b * h;
+
+                this.gobs.add(Game.createTile(x, y, w, h));
+            }
+        }
+
+        // Create left, right walls.
+        this.walls.add(new Line2D.Double(0, 0, 0, this.height));
+        this.walls.add(new Line2D.Double(this.width, 0, this.width, this.height));
+
+        // Create random ground line.
+        int prevX = 0;
+        int prevY = this.height / 2;
+        for(int a = 0; a < this.width; a++) {
+            int x1 = this.ran(200) + 10 + prevX;
+            int y1 = this.ran(30);
+            double s = this.ran();
+            if(s <= .5) { y1 = -y1; } // Negative
+            y1 += prevY;
+
+            this.walls.add(new Line2D.Double(prevX, prevY, x1, y1));
+
+            prevX = x1;
+            prevY = y1;
+
+            if(prevX >= this.width) {
+                break;
+            }
+        }
+
+        // Create random lines.
+        prevX = 0;
+        prevY = (this.height / 2) - 20;
+        for(int a = 0; a < this.width; a++) {
+            int x1 = this.ran(300) + 10 + prevX;
+            int y1 = this.ran(30);
+            double s = this.ran();
+            if(s <= .5) { y1 = -y1; } // Negative
+            y1 += prevY;
+
+            if(this.ran() >= .2) {
+                this.walls.add(new Line2D.Double(prevX, prevY, x1, y1));
+            }
+
+            prevX = x1;
+            prevY = y1;
+
+            if(prevX >= this.width) {
+                break;
+            }
+        }
+
+        // Steep angle slide demonstration.
+        World.addSlideDemonstration(this.walls, 0, this.height / 2);
+
+        // Index the walls for collision and culling queries.
+        this.wallIndex = new WallIndex(this.walls, WallIndex.DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Add the steep angle slide demonstration: a slope up to a ledge, and a slope too steep to climb back
+     * down to the ground, from x along ground at height y.
+     */
+    public static void addSlideDemonstration(List<Line2D> walls, double x, double y) {
+        walls.add(new Line2D.Double(x + 200, y - 40, x + 650, y - 500));
+        walls.add(new Line2D.Double(x + 650, y - 500, x + 750, y - 500));
+        walls.add(new Line2D.Double(x + 750, y - 500, x + 950, y - 40));
+    }
+
+    /**
+     * Load a level file (see LevelFile).
+     */
+    private static LevelFile.Level loadLevel(File file) {
+        try {
+            return LevelFile.load(file);
+        } catch(IOException e) {
+            throw new RuntimeException("Can't load level " + file, e);
+        }
+    }
+
+    /**
+     * Take the level's size, walls and props.
+     */
+    private void setLevel(LevelFile.Level level) {
+        this.width = level.width;
+        this.height = level.height;
+        this.gobs = level.createProps();
+        this.wallIndex = level.walls;
+        this.walls = this.wallIndex.asList();
+    }
+
+    /**
+     * Take the content of the loaded chunks. The lists are replaced rather than modified,
+     * so a render thread still drawing the old ones isn't disturbed.
+     */
+    private void loadChunks() {
+        this.gobs = this.chunks.getGobs();
+        this.walls = this.chunks.getWalls();
+        this.wallIndex = new WallIndex(this.walls, WallIndex.DEFAULT_CELL_SIZE);
+        this.version++;
+        
+        if(this.navigator != null) {
+            this.navigator.buildLater(this.wallIndex);
+        }
+    }
+
+    /**
+     * Run one tick with the controls already set on the player: load the chunks around the player,
+     * move the player and the store actors, and update the camera.
+     *
+     * Store actors step on the pool when there are more than threshold of them (see ActorStore.step()),
+     * or serially when pool is null.
+     */
+    public void logic(ForkJoinPool pool, int threshold) {
+        // Load the chunks around the player.
+        if(this.chunks != null && this.chunks.update(this.player.getCenterX())) {
+            this.loadChunks();
+        }
+
+        // Process game objects.
+        this.player.logic(this.wallIndex);
+        
+        if(this.navigator != null) {
+            this.navigator.follow(this.player.getCenterX(), this.player.getCenterY());
+            this.navigator.steer();
+        }
+        this.actors.step(this.wallIndex, pool, threshold);
+
+        // Update camera.
+        this.camera.logic();
+    }
+
+    private double ran() {
+        return this.random.nextDouble();
+    }
+
+    private int ran(int max) {
+        return this.random.nextInt(max);
+    }
+}